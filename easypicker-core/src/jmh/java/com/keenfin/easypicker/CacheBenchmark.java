@@ -0,0 +1,64 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Structures on the decode path: bitmap pool buckets, disk cache keys and metrics histograms
+@State(Scope.Thread)
+public class CacheBenchmark {
+    private static final int ITEMS = 64;
+
+    private final SizePool<String, Object> mPool = new SizePool<>();
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private final Object[] mItems = new Object[ITEMS];
+    private final int[] mSizes = new int[ITEMS];
+    private long mNanos;
+
+    @Setup
+    public void setUp() {
+        // grid cells of a few sizes, as pooled thumbnails are
+        for (int i = 0; i < ITEMS; i++) {
+            mItems[i] = new Object();
+            mSizes[i] = (200 + i % 4 * 40) * (200 + i % 4 * 40) * 4;
+            mPool.add("ARGB_8888", mSizes[i], mItems[i]);
+        }
+    }
+
+    @Benchmark
+    public Object sizePoolReuse() {
+        // taken for a decode and given back when its view is recycled
+        Object item = mPool.poll("ARGB_8888", 220 * 220 * 4, 2);
+        if (item != null)
+            mPool.add("ARGB_8888", 240 * 240 * 4, item);
+
+        return item;
+    }
+
+    @Benchmark
+    public Object sizePoolTrim() {
+        Object oldest = mPool.pollOldest();
+        mPool.add("ARGB_8888", 200 * 200 * 4, oldest);
+        return oldest;
+    }
+
+    @Benchmark
+    public String diskCacheKey() {
+        return CacheKeys.getKey("/storage/emulated/0/DCIM/Camera/IMG_20210101_120000.jpg", 4194304, 1609502400000L, 200);
+    }
+
+    @Benchmark
+    public long histogramRecord() {
+        mNanos = (mNanos * 6364136223846793005L + 1442695040888963407L) >>> 34;
+        mHistogram.record(mNanos);
+        return mHistogram.getCount();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+// Sample size selection done for every decode and prefetch
+@State(Scope.Thread)
+public class DecodeMathBenchmark {
+    private static final int SIZES = 1024;
+
+    @Param({"200", "1080"})
+    public int requiredSize;
+
+    private final int[] mWidths = new int[SIZES];
+    private final int[] mHeights = new int[SIZES];
+
+    @Setup
+    public void setUp() {
+        // camera and screenshot sized sources
+        Random random = new Random(42);
+        for (int i = 0; i < SIZES; i++) {
+            mWidths[i] = 480 + random.nextInt(8000);
+            mHeights[i] = 480 + random.nextInt(6000);
+        }
+    }
+
+    @Benchmark
+    public void calculateSampleSize(Blackhole blackhole) {
+        for (int i = 0; i < SIZES; i++)
+            blackhole.consume(DecodeMath.calculateSampleSize(mWidths[i], mHeights[i], requiredSize));
+    }
+
+    @Benchmark
+    public void fitSampleSize(Blackhole blackhole) {
+        for (int i = 0; i < SIZES; i++) {
+            int sample = DecodeMath.calculateSampleSize(mWidths[i], mHeights[i], requiredSize);
+            blackhole.consume(DecodeMath.fitSampleSize(mWidths[i], mHeights[i], sample, 4, 8 * 1024 * 1024));
+        }
+    }
+
+    @Benchmark
+    public void isThumbnailLargeEnough(Blackhole blackhole) {
+        for (int i = 0; i < SIZES; i++)
+            blackhole.consume(DecodeMath.isThumbnailLargeEnough(mWidths[i] / 16, mHeights[i] / 16, requiredSize)
+                                      && DecodeMath.isSameAspect(mWidths[i], mHeights[i], mWidths[i] / 16, mHeights[i] / 16));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Document copies between real temp files: channel transfer and pooled buffer for provider streams.
+// Time per copy, size / time is the throughput. Source stays in page cache after the first copy, so it is
+// the copy path that is measured, not the storage.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileCopierBenchmark {
+    private static final int WRITE_CHUNK = 1024 * 1024;
+
+    @Param({"65536", "8388608", "134217728"})
+    public long size;
+
+    private File mSource, mDestination;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mSource = File.createTempFile("easypicker", "source");
+        mDestination = File.createTempFile("easypicker", "destination");
+        byte[] chunk = new byte[WRITE_CHUNK];
+        Random random = new Random(42);
+        FileOutputStream fos = new FileOutputStream(mSource);
+        try {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                fos.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mSource.delete();
+        mDestination.delete();
+    }
+
+    @Benchmark
+    public long copyStream() throws IOException {
+        FileInputStream fis = new FileInputStream(mSource);
+        FileOutputStream fos = new FileOutputStream(mDestination, false);
+        try {
+            return FileCopier.copy(fis, fos, size, null);
+        } finally {
+            fis.close();
+            fos.close();
+        }
+    }
+
+    @Benchmark
+    public long copyChannel() throws IOException {
+        FileInputStream fis = new FileInputStream(mSource);
+        RandomAccessFile raf = new RandomAccessFile(mDestination, "rw");
+        try {
+            raf.setLength(0);
+            return FileCopier.copy(fis.getChannel(), raf.getChannel(), size, null);
+        } finally {
+            fis.close();
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+// Names of copied documents and packaged attachments, existing files force numbered names
+@State(Scope.Thread)
+public class FileNamesBenchmark {
+    private static final String NAME = "IMG_20210101_120000.jpg";
+
+    @Param({"0", "16"})
+    public int taken;
+
+    private File mDirectory;
+    private final Set<String> mNames = new HashSet<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("easypicker", "names");
+        if (!mDirectory.delete() || !mDirectory.mkdir())
+            throw new IOException("Can not create " + mDirectory);
+
+        String[] names = new String[taken];
+        for (int i = 0; i < taken; i++) {
+            names[i] = i == 0 ? NAME : "IMG_20210101_120000(" + i + ").jpg";
+            if (!new File(mDirectory, names[i]).createNewFile())
+                throw new IOException("Can not create " + names[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public File generateFileName() {
+        // file is removed again so every call sees the same directory
+        File file = FileNames.generateFileName(NAME, mDirectory);
+        if (file != null)
+            file.delete();
+
+        return file;
+    }
+
+    @Benchmark
+    public String getUniqueName() {
+        mNames.clear();
+        String name = null;
+        for (int i = 0; i <= taken; i++)
+            name = FileNames.getUniqueName(NAME, mNames);
+
+        return name;
+    }
+
+    @Benchmark
+    public String getName() {
+        return FileNames.getName("/storage/emulated/0/DCIM/Camera/" + NAME);
+    }
+}
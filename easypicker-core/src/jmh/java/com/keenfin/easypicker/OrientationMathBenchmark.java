@@ -0,0 +1,37 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Orientation transforms built for every drawn OrientedBitmapDrawable, rotated bitmap and tile
+@State(Scope.Thread)
+public class OrientationMathBenchmark {
+    private final float[] mValues = new float[OrientationMath.MATRIX_SIZE];
+
+    @Benchmark
+    public void getTransform(Blackhole blackhole) {
+        for (int orientation = OrientationMath.ORIENTATION_NORMAL; orientation <= OrientationMath.ORIENTATION_ROTATE_270; orientation++)
+            blackhole.consume(OrientationMath.getTransform(orientation, 4000, 3000));
+    }
+
+    @Benchmark
+    public void getTransformReused(Blackhole blackhole) {
+        for (int orientation = OrientationMath.ORIENTATION_NORMAL; orientation <= OrientationMath.ORIENTATION_ROTATE_270; orientation++)
+            blackhole.consume(OrientationMath.getTransform(orientation, 4000, 3000, mValues));
+    }
+
+    @Benchmark
+    public void isSidesSwapped(Blackhole blackhole) {
+        for (int orientation = 0; orientation <= OrientationMath.ORIENTATION_ROTATE_270; orientation++)
+            blackhole.consume(OrientationMath.isSidesSwapped(orientation));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Stream part of AttachmentPackager: multipart bodies and zip archives written straight to the output.
+// Sources are opened one at a time and copied through FileCopier buffers.
+public class AttachmentWriter {
+    public static final String DEFAULT_FIELD_NAME = "file";
+    public static final int HEADER_BUFFER_SIZE = 8 * 1024;
+
+    private static final String CRLF = "\r\n";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private String mFieldName = DEFAULT_FIELD_NAME;
+
+    // One attachment, opened only when its turn to be written comes.
+    public interface Source {
+        // null or empty gets a number
+        String getName();
+
+        // null is sent as application/octet-stream
+        String getMimeType();
+
+        InputStream open() throws IOException;
+    }
+
+    // Form field of every image part.
+    public void setFieldName(String fieldName) {
+        mFieldName = fieldName;
+    }
+
+    public static String generateBoundary() {
+        return "EasyPicker" + Long.toHexString(new Random().nextLong()) + Long.toHexString(System.currentTimeMillis());
+    }
+
+    public static String getMultipartContentType(String boundary) {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * Body of multipart/form-data request, one part per source.
+     *
+     * @param listener (Optional) Bytes of sources written so far, total is unknown. Cancels the write.
+     * @throws FileNotFoundException if a source can not be opened.
+     */
+    public void writeMultipart(List<? extends Source> sources, String boundary, OutputStream os, FileCopier.Listener listener)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(os, HEADER_BUFFER_SIZE);
+        Progress progress = listener == null ? null : new Progress(listener);
+        Set<String> names = new HashSet<>();
+        for (Source source : sources) {
+            InputStream is = source.open();
+            try {
+                String name = getUniqueName(source, names);
+                String mimeType = source.getMimeType();
+                write(out, "--" + boundary + CRLF);
+                write(out, "Content-Disposition: form-data; name=\"" + escape(mFieldName) + "\"; filename=\"" + escape(name) + "\"" + CRLF);
+                write(out, "Content-Type: " + (mimeType == null ? DEFAULT_MIME_TYPE : mimeType) + CRLF + CRLF);
+                copy(is, out, progress);
+                write(out, CRLF);
+            } finally {
+                close(is);
+            }
+        }
+
+        write(out, "--" + boundary + "--" + CRLF);
+        out.flush();
+    }
+
+    /**
+     * Zip archive with an entry per source. Output stays open, it belongs to the caller.
+     *
+     * @param listener (Optional) Bytes of sources written so far, total is unknown. Cancels the write.
+     * @throws FileNotFoundException if a source can not be opened.
+     */
+    public void writeZip(List<? extends Source> sources, OutputStream os, FileCopier.Listener listener) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os, HEADER_BUFFER_SIZE));
+        // images are compressed already, deflating them again costs time for nothing
+        zos.setLevel(Deflater.NO_COMPRESSION);
+        Progress progress = listener == null ? null : new Progress(listener);
+        Set<String> names = new HashSet<>();
+        for (Source source : sources) {
+            InputStream is = source.open();
+            try {
+                zos.putNextEntry(new ZipEntry(getUniqueName(source, names)));
+                copy(is, zos, progress);
+                zos.closeEntry();
+            } finally {
+                close(is);
+            }
+        }
+
+        zos.finish();
+        zos.flush();
+    }
+
+    // same name picked from two folders gets a suffix like FileUtil.generateFileName does
+    private static String getUniqueName(Source source, Set<String> names) {
+        String name = source.getName();
+        if (name == null || name.isEmpty())
+            name = String.valueOf(names.size());
+
+        return FileNames.getUniqueName(name, names);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\"", "%22").replace("\r", "").replace("\n", "");
+    }
+
+    private static void write(OutputStream os, String value) throws IOException {
+        os.write(value.getBytes("UTF-8"));
+    }
+
+    private static void copy(InputStream is, OutputStream os, Progress progress) throws IOException {
+        long copied = FileCopier.copy(is, os, FileCopier.UNKNOWN_SIZE, progress);
+        if (progress != null)
+            progress.mDone += copied;
+    }
+
+    private static void close(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // reports bytes of the whole package rather than of the current source
+    private static class Progress implements FileCopier.Listener {
+        private final FileCopier.Listener mListener;
+        private long mDone;
+
+        Progress(FileCopier.Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onProgress(long copied, long total) {
+            mListener.onProgress(mDone + copied, FileCopier.UNKNOWN_SIZE);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mListener.isCancelled();
+        }
+    }
+}
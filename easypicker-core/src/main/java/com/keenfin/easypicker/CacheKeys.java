@@ -0,0 +1,38 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Disk cache keys: hex MD5 of the source identity, safe to use as file names
+public class CacheKeys {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static String getKey(String pathOrUri, long length, long modified, int size) {
+        String source = pathOrUri + "|" + length + "|" + modified + "|" + size;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return toHex(digest.digest(source.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+}
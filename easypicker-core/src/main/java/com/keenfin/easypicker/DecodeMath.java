@@ -0,0 +1,52 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+// Sample size and memory arithmetic behind BitmapUtil decodes, free of Android types
+public class DecodeMath {
+    public static final int THUMBNAIL_UPSCALE_DIVIDER = 4;
+
+    // Largest power of two keeping both sides above the required size.
+    public static int calculateSampleSize(int width, int height, int requiredSize) {
+        int scale = 1;
+
+        while (width / scale > requiredSize && height / scale > requiredSize)
+            scale *= 2;
+
+        return scale;
+    }
+
+    // Thumbnails are upscaled by at most a quarter to fill the cell.
+    public static boolean isThumbnailLargeEnough(int width, int height, int requiredSize) {
+        return Math.min(width, height) * THUMBNAIL_UPSCALE_DIVIDER >= requiredSize * (THUMBNAIL_UPSCALE_DIVIDER - 1);
+    }
+
+    public static boolean isSameAspect(int width, int height, int thumbWidth, int thumbHeight) {
+        // thumbnail may be stored with the sides swapped, compare long to short sides
+        long image = (long) Math.max(width, height) * Math.min(thumbWidth, thumbHeight);
+        long thumb = (long) Math.max(thumbWidth, thumbHeight) * Math.min(width, height);
+        return Math.abs(image - thumb) * 20 <= image;
+    }
+
+    // Bytes of pixels decoded with this sample size.
+    public static long getDecodeSize(int width, int height, int sampleSize, int bytesPerPixel) {
+        return (long) ceilDiv(width, sampleSize) * ceilDiv(height, sampleSize) * bytesPerPixel;
+    }
+
+    // Sample size doubled until the decode fits into available bytes.
+    public static int fitSampleSize(int width, int height, int sampleSize, int bytesPerPixel, long available) {
+        while (getDecodeSize(width, height, sampleSize, bytesPerPixel) > available && sampleSize < width)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    public static int ceilDiv(int value, int divider) {
+        return (value + divider - 1) / divider;
+    }
+}
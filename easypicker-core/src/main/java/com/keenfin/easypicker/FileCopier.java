@@ -0,0 +1,112 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+// Streaming copy: channel transfer for regular files, large pooled buffer for plain streams
+public class FileCopier {
+    public static final int BUFFER_SIZE = 256 * 1024;
+    public static final long TRANSFER_CHUNK = 4 * 1024 * 1024;
+    public static final long PROGRESS_STEP = 1024 * 1024;
+    public static final long UNKNOWN_SIZE = -1;
+
+    private static final int MAX_BUFFERS = 4;
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<>();
+
+    public interface Listener {
+        // called about every PROGRESS_STEP bytes and once at the end, total is UNKNOWN_SIZE for streams without length
+        void onProgress(long copied, long total);
+
+        boolean isCancelled();
+    }
+
+    /**
+     * Copy with FileChannel.transferTo, kernel moves the data without user space buffers where supported.
+     *
+     * @return Bytes copied, less than size if source is shorter.
+     * @throws InterruptedIOException if listener cancelled the copy.
+     */
+    public static long copy(FileChannel source, FileChannel destination, long size, Listener listener) throws IOException {
+        long position = 0, reported = 0;
+        while (position < size) {
+            checkCancelled(listener);
+            long count = source.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), destination);
+            if (count <= 0)
+                break;
+
+            position += count;
+            if (listener != null && position - reported >= PROGRESS_STEP) {
+                listener.onProgress(position, size);
+                reported = position;
+            }
+        }
+
+        if (listener != null && reported != position)
+            listener.onProgress(position, size);
+
+        return position;
+    }
+
+    /**
+     * Copy through a reusable buffer, only the bytes actually read are written.
+     *
+     * @return Bytes copied.
+     * @throws InterruptedIOException if listener cancelled the copy.
+     */
+    public static long copy(InputStream source, OutputStream destination, long total, Listener listener) throws IOException {
+        byte[] buffer = obtainBuffer();
+        try {
+            long copied = 0, reported = 0;
+            int read;
+            while (true) {
+                checkCancelled(listener);
+                if ((read = source.read(buffer)) == -1)
+                    break;
+
+                destination.write(buffer, 0, read);
+                copied += read;
+                if (listener != null && copied - reported >= PROGRESS_STEP) {
+                    listener.onProgress(copied, total);
+                    reported = copied;
+                }
+            }
+
+            if (listener != null && reported != copied)
+                listener.onProgress(copied, total);
+
+            return copied;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static void checkCancelled(Listener listener) throws InterruptedIOException {
+        if (listener != null && listener.isCancelled())
+            throw new InterruptedIOException("Copy cancelled");
+    }
+
+    private static byte[] obtainBuffer() {
+        synchronized (sBuffers) {
+            byte[] buffer = sBuffers.poll();
+            return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+        }
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        synchronized (sBuffers) {
+            if (sBuffers.size() < MAX_BUFFERS)
+                sBuffers.add(buffer);
+        }
+    }
+}
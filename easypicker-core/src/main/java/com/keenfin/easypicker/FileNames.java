@@ -0,0 +1,70 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+// Name handling of FileUtil that needs no Context
+public class FileNames {
+    public static String getName(String filename) {
+        if (filename == null)
+            return null;
+
+        int index = filename.lastIndexOf('/');
+        return filename.substring(index + 1);
+    }
+
+    /**
+     * Create an empty file, name gets (1), (2)... before the extension while taken.
+     *
+     * @return Created file, null if name is null or the file can not be created.
+     */
+    public static File generateFileName(String name, File directory) {
+        if (name == null)
+            return null;
+
+        File file = new File(directory, name);
+        if (file.exists()) {
+            int dotIndex = getExtensionIndex(name);
+            String fileName = name.substring(0, dotIndex), extension = name.substring(dotIndex);
+            for (int index = 1; file.exists(); index++)
+                file = new File(directory, fileName + '(' + index + ')' + extension);
+        }
+
+        try {
+            if (!file.createNewFile())
+                return null;
+        } catch (IOException e) {
+            return null;
+        }
+
+        return file;
+    }
+
+    // Same numbering for names that only have to be unique within one package, taken names are updated.
+    public static String getUniqueName(String name, Set<String> taken) {
+        if (taken.add(name))
+            return name;
+
+        int dotIndex = getExtensionIndex(name);
+        String fileName = name.substring(0, dotIndex), extension = name.substring(dotIndex);
+        String unique = name;
+        for (int index = 1; !taken.add(unique); index++)
+            unique = fileName + '(' + index + ')' + extension;
+
+        return unique;
+    }
+
+    // leading dot of hidden files is not an extension
+    private static int getExtensionIndex(String name) {
+        int dotIndex = name.lastIndexOf('.');
+        return dotIndex > 0 ? dotIndex : name.length();
+    }
+}
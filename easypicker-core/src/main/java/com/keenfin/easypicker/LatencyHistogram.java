@@ -0,0 +1,92 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free histogram of durations in power of two microsecond buckets: bucket i holds values below 2^i us
+public class LatencyHistogram {
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        mCounts.incrementAndGet(getBucket(nanos));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos))
+            max = mMaxNanos.get();
+    }
+
+    static int getBucket(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getCount(int bucket) {
+        return mCounts.get(bucket);
+    }
+
+    // exclusive upper bound of the bucket in microseconds
+    public static long getBucketLimit(int bucket) {
+        return 1L << bucket;
+    }
+
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count / 1000;
+    }
+
+    public long getMaxMicros() {
+        return mMaxNanos.get() / 1000;
+    }
+
+    /**
+     * @param percentile Fraction of samples, 0.5 for median.
+     * @return Upper bound of the bucket the percentile falls into, in microseconds.
+     */
+    public long getPercentileMicros(float percentile) {
+        long count = mCount.get();
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(count * percentile), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank)
+                return getBucketLimit(i);
+        }
+
+        return getBucketLimit(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            mCounts.set(i, 0);
+
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMeanMicros() + "us p50<" + getPercentileMicros(0.5f)
+                + "us p90<" + getPercentileMicros(0.9f) + "us p99<" + getPercentileMicros(0.99f) + "us max=" + getMaxMicros() + "us";
+    }
+}
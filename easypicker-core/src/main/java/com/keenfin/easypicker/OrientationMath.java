@@ -0,0 +1,80 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+// EXIF orientation as an affine transform of stored pixels, values are in android.graphics.Matrix order
+public class OrientationMath {
+    // EXIF tag values, same as ExifInterface.ORIENTATION_*
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    public static final int MATRIX_SIZE = 9;
+
+    public static boolean isSidesSwapped(int orientation) {
+        return orientation == ORIENTATION_TRANSPOSE || orientation == ORIENTATION_ROTATE_90
+                || orientation == ORIENTATION_TRANSVERSE || orientation == ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * Transform of width x height pixels into EXIF orientation, placed at origin.
+     *
+     * @return Values for Matrix.setValues, null if nothing to do.
+     */
+    public static float[] getTransform(int orientation, int width, int height) {
+        float[] values = new float[MATRIX_SIZE];
+        return getTransform(orientation, width, height, values) ? values : null;
+    }
+
+    // Fills values, false for orientations that leave pixels as they are.
+    public static boolean getTransform(int orientation, int width, int height, float[] values) {
+        // x' = a * x + b * y + c, y' = d * x + e * y + f; flips and quarter turns only, so exact
+        switch (orientation) {
+            case ORIENTATION_FLIP_HORIZONTAL:
+                set(values, -1, 0, width, 0, 1, 0);
+                return true;
+            case ORIENTATION_ROTATE_180:
+                set(values, -1, 0, width, 0, -1, height);
+                return true;
+            case ORIENTATION_FLIP_VERTICAL:
+                set(values, 1, 0, 0, 0, -1, height);
+                return true;
+            case ORIENTATION_TRANSPOSE:
+                set(values, 0, 1, 0, 1, 0, 0);
+                return true;
+            case ORIENTATION_ROTATE_90:
+                set(values, 0, -1, height, 1, 0, 0);
+                return true;
+            case ORIENTATION_TRANSVERSE:
+                set(values, 0, -1, height, -1, 0, width);
+                return true;
+            case ORIENTATION_ROTATE_270:
+                set(values, 0, 1, 0, -1, 0, width);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void set(float[] values, float a, float b, float c, float d, float e, float f) {
+        values[0] = a;
+        values[1] = b;
+        values[2] = c;
+        values[3] = d;
+        values[4] = e;
+        values[5] = f;
+        values[6] = 0;
+        values[7] = 0;
+        values[8] = 1;
+    }
+}
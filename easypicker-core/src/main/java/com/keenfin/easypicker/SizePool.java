@@ -0,0 +1,113 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Items bucketed by group and byte size, the smallest one covering a request is taken, the oldest one is trimmed.
+// Not thread safe, BitmapPool guards it.
+public class SizePool<G, T> {
+    private final Map<G, TreeMap<Integer, ArrayDeque<T>>> mBuckets = new HashMap<>();
+    private final LinkedHashMap<T, Entry<G>> mOrder = new LinkedHashMap<>();
+    private long mSize;
+
+    private static class Entry<G> {
+        final G mGroup;
+        final int mSize;
+
+        Entry(G group, int size) {
+            mGroup = group;
+            mSize = size;
+        }
+    }
+
+    public void add(G group, int size, T item) {
+        TreeMap<Integer, ArrayDeque<T>> bucket = mBuckets.get(group);
+        if (bucket == null) {
+            bucket = new TreeMap<>();
+            mBuckets.put(group, bucket);
+        }
+
+        ArrayDeque<T> items = bucket.get(size);
+        if (items == null) {
+            items = new ArrayDeque<>();
+            bucket.put(size, items);
+        }
+
+        items.add(item);
+        mOrder.put(item, new Entry<>(group, size));
+        mSize += size;
+    }
+
+    /**
+     * @param maxFactor Items larger than required size times this are left for others.
+     * @return Smallest item of the group not less than required size, null if none fits.
+     */
+    public T poll(G group, int requiredSize, int maxFactor) {
+        TreeMap<Integer, ArrayDeque<T>> bucket = mBuckets.get(group);
+        if (bucket == null)
+            return null;
+
+        Map.Entry<Integer, ArrayDeque<T>> entry = bucket.ceilingEntry(requiredSize);
+        if (entry == null || entry.getKey() > (long) requiredSize * maxFactor)
+            return null;
+
+        T item = entry.getValue().poll();
+        if (entry.getValue().isEmpty())
+            bucket.remove(entry.getKey());
+
+        mOrder.remove(item);
+        mSize -= entry.getKey();
+        return item;
+    }
+
+    // Least recently added item, null when empty.
+    public T pollOldest() {
+        Iterator<Map.Entry<T, Entry<G>>> oldest = mOrder.entrySet().iterator();
+        if (!oldest.hasNext())
+            return null;
+
+        Map.Entry<T, Entry<G>> entry = oldest.next();
+        oldest.remove();
+
+        T item = entry.getKey();
+        int size = entry.getValue().mSize;
+        TreeMap<Integer, ArrayDeque<T>> bucket = mBuckets.get(entry.getValue().mGroup);
+        ArrayDeque<T> items = bucket.get(size);
+        items.remove(item);
+        if (items.isEmpty())
+            bucket.remove(size);
+
+        mSize -= size;
+        return item;
+    }
+
+    public boolean contains(T item) {
+        return mOrder.containsKey(item);
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    // Everything removed, returned for releasing.
+    public List<T> clear() {
+        List<T> items = new ArrayList<>(mOrder.keySet());
+        mOrder.clear();
+        mBuckets.clear();
+        mSize = 0;
+        return items;
+    }
+}
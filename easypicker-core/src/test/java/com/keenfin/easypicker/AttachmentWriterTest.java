@@ -0,0 +1,237 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Multipart body goes through a real HTTP connection in chunked streaming mode, zip is read back by ZipInputStream
+public class AttachmentWriterTest {
+    private static final int CHUNK_LENGTH = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<FileSource> mSources = new ArrayList<>();
+    private final List<byte[]> mContents = new ArrayList<>();
+    private HttpServer mServer;
+    private volatile byte[] mReceivedBody;
+    private volatile String mReceivedTransferEncoding;
+    private volatile String mReceivedContentType;
+
+    @Before
+    public void setUp() throws IOException {
+        // larger than FileCopier buffer, an empty file and the same name from two folders
+        addFile(mFolder.newFolder("first"), "photo.jpg", FileCopier.BUFFER_SIZE * 2 + 17);
+        addFile(mFolder.newFolder("second"), "photo.jpg", 1000);
+        addFile(mFolder.getRoot(), "empty.png", 0);
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/upload", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mReceivedTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                mReceivedContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                mReceivedBody = readFully(exchange.getRequestBody());
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void multipartIsUploadedByteIdentical() throws IOException {
+        String boundary = AttachmentWriter.generateBoundary();
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/upload");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setChunkedStreamingMode(CHUNK_LENGTH);
+        connection.setRequestProperty("Content-Type", AttachmentWriter.getMultipartContentType(boundary));
+        try {
+            OutputStream os = connection.getOutputStream();
+            new AttachmentWriter().writeMultipart(mSources, boundary, os, null);
+            os.close();
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+
+        assertEquals("chunked", mReceivedTransferEncoding);
+        assertEquals(AttachmentWriter.getMultipartContentType(boundary), mReceivedContentType);
+
+        List<byte[]> parts = splitParts(mReceivedBody, boundary);
+        assertEquals(mSources.size(), parts.size());
+        String[] names = {"photo.jpg", "photo(1).jpg", "empty.png"};
+        for (int i = 0; i < parts.size(); i++) {
+            byte[] part = parts.get(i);
+            int headerEnd = indexOf(part, "\r\n\r\n".getBytes("UTF-8"), 0);
+            String header = new String(part, 0, headerEnd, "UTF-8");
+            assertTrue(header, header.contains("name=\"file\"; filename=\"" + names[i] + "\""));
+            assertTrue(header, header.contains("Content-Type: " + (i == 2 ? "image/png" : "image/jpeg")));
+            assertArrayEquals(mContents.get(i), Arrays.copyOfRange(part, headerEnd + 4, part.length));
+        }
+    }
+
+    @Test
+    public void zipRoundTrips() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AttachmentWriter().writeZip(mSources, out, null);
+
+        String[] names = {"photo.jpg", "photo(1).jpg", "empty.png"};
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        try {
+            for (int i = 0; i < mSources.size(); i++) {
+                ZipEntry entry = zis.getNextEntry();
+                assertEquals(names[i], entry.getName());
+                assertArrayEquals(mContents.get(i), readFully(zis));
+            }
+
+            assertEquals(null, zis.getNextEntry());
+        } finally {
+            zis.close();
+        }
+    }
+
+    @Test
+    public void cancelledWriteStops() throws IOException {
+        FileCopier.Listener cancelled = new FileCopier.Listener() {
+            @Override
+            public void onProgress(long copied, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+
+        try {
+            new AttachmentWriter().writeZip(mSources, new ByteArrayOutputStream(), cancelled);
+            fail("Write was not cancelled");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+    }
+
+    private void addFile(File directory, String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = new File(directory, name);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+
+        mSources.add(new FileSource(file, name.endsWith(".png") ? "image/png" : "image/jpeg"));
+        mContents.add(content);
+    }
+
+    // part bytes between delimiters, without the CRLF that belongs to the next delimiter
+    private static List<byte[]> splitParts(byte[] body, String boundary) throws IOException {
+        byte[] delimiter = ("--" + boundary).getBytes("UTF-8");
+        List<byte[]> parts = new ArrayList<>();
+        int start = indexOf(body, delimiter, 0);
+        assertEquals(0, start);
+        while (true) {
+            int partStart = start + delimiter.length;
+            if (body[partStart] == '-' && body[partStart + 1] == '-')
+                break;
+
+            int next = indexOf(body, ("\r\n--" + boundary).getBytes("UTF-8"), partStart);
+            assertTrue(next > 0);
+            parts.add(Arrays.copyOfRange(body, partStart + 2, next));
+            start = next + 2;
+        }
+
+        return parts;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++)
+                if (data[i + j] != pattern[j])
+                    continue outer;
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileCopier.copy(is, out, FileCopier.UNKNOWN_SIZE, null);
+        return out.toByteArray();
+    }
+
+    private static class FileSource implements AttachmentWriter.Source {
+        private final File mFile;
+        private final String mMimeType;
+
+        FileSource(File file, String mimeType) {
+            mFile = file;
+            mMimeType = mimeType;
+        }
+
+        @Override
+        public String getName() {
+            return mFile.getName();
+        }
+
+        @Override
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new FileInputStream(mFile);
+        }
+    }
+}
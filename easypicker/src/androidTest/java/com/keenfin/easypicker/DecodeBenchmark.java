@@ -0,0 +1,137 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens and bytes read per thumbnail of the single-open decode, from {@link DecodeMetrics} counters.
+ * Results are logged and sent as instrumentation status:
+ * ./gradlew :easypicker:connectedAndroidTest or adb shell am instrument -w -e class com.keenfin.easypicker.DecodeBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodeBenchmark {
+    private static final String TAG = "DecodeBenchmark";
+    private static final int ITERATIONS = 5;
+    private static final int SCREEN_SIZE = 1080;
+
+    private static List<String> sImages;
+    private static long sAverageLength;
+
+    private interface Decode {
+        Bitmap decode(String path, int requiredSize);
+    }
+
+    @BeforeClass
+    public static void createImages() throws IOException {
+        sImages = TestImages.create(InstrumentationRegistry.getTargetContext());
+        long total = 0;
+        for (String image : sImages)
+            total += new File(image).length();
+
+        sAverageLength = total / sImages.size();
+    }
+
+    @Test
+    public void getBitmap() {
+        Decode decode = new Decode() {
+            @Override
+            public Bitmap decode(String path, int requiredSize) {
+                return BitmapUtil.getBitmap(path, requiredSize, new CancelSignal());
+            }
+        };
+
+        run("getBitmap thumbnail", decode, Constants.REQUIRED_THUMBNAIL_SIZE, 1);
+        run("getBitmap screen", decode, SCREEN_SIZE, 1);
+    }
+
+    @Test
+    public void decodeBitmap() {
+        Decode decode = new Decode() {
+            @Override
+            public Bitmap decode(String path, int requiredSize) {
+                OrientedBitmap bitmap = BitmapUtil.decodeBitmap(path, requiredSize, new CancelSignal());
+                return bitmap == null ? null : bitmap.getBitmap();
+            }
+        };
+
+        run("decodeBitmap thumbnail", decode, Constants.REQUIRED_THUMBNAIL_SIZE, 1);
+        run("decodeBitmap screen", decode, SCREEN_SIZE, 1);
+    }
+
+    // grid path, EXIF header is read through the counted stream on every API level. Generated images have
+    // no thumbnail, so P and later go on with ImageDecoder, P has to open the path a second time for it.
+    @Test
+    public void decodeBitmapGrid() {
+        Decode decode = new Decode() {
+            @Override
+            public Bitmap decode(String path, int requiredSize) {
+                OrientedBitmap bitmap = BitmapUtil.decodeBitmap(path, requiredSize, true, new CancelSignal());
+                return bitmap == null ? null : bitmap.getBitmap();
+            }
+        };
+
+        int opens = Build.VERSION.SDK_INT == Build.VERSION_CODES.P ? 2 : 1;
+        float bytesPerDecode = run("decodeBitmap grid", decode, Constants.REQUIRED_THUMBNAIL_SIZE, opens);
+        // header passes are served from the marked buffer, the file is read about once
+        assertTrue("Bytes per decode " + bytesPerDecode, bytesPerDecode > 0 && bytesPerDecode <= sAverageLength + Constants.HEADER_MARK_LIMIT);
+    }
+
+    private float run(String name, Decode decode, int requiredSize, int opens) {
+        DecodeMetrics.reset();
+        // bytes are counted only while someone listens, stage timers run as well then
+        DecodeMetrics.setListener(new MetricsRecorder());
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < ITERATIONS; i++)
+                for (String image : sImages) {
+                    Bitmap bitmap = decode.decode(image, requiredSize);
+                    assertNotNull(image, bitmap);
+                    BitmapPool.getInstance().put(bitmap);
+                }
+        } finally {
+            DecodeMetrics.setListener(null);
+        }
+
+        long nanos = System.nanoTime() - start;
+        long decodes = DecodeMetrics.getDecodes();
+        float opensPerDecode = DecodeMetrics.getOpensPerDecode();
+        float bytesPerDecode = DecodeMetrics.getBytesPerDecode();
+
+        // ImageDecoder reads the file itself, its bytes are not counted
+        Bundle results = new Bundle();
+        results.putLong(name + ".decodes", decodes);
+        results.putFloat(name + ".opensPerDecode", opensPerDecode);
+        results.putFloat(name + ".bytesPerDecode", bytesPerDecode);
+        results.putLong(name + ".averageFileLength", sAverageLength);
+        results.putLong(name + ".microsPerDecode", decodes == 0 ? 0 : nanos / 1000 / decodes);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+        Log.i(TAG, name + ": " + results);
+
+        assertEquals(ITERATIONS * sImages.size(), decodes);
+        assertEquals(opens, opensPerDecode, 0f);
+        return bytesPerDecode;
+    }
+}
@@ -0,0 +1,14 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.app.Activity;
+
+// Empty window for PhotoPicker instrumented tests, content is set by the test
+public class PickerTestActivity extends Activity {
+}
@@ -0,0 +1,201 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Restore and replace of 10, 100 and 1000 attachments: layout requests made by the call and time until
+ * the grid is laid out. Results are logged and sent as instrumentation status:
+ * ./gradlew :easypicker:connectedAndroidTest or adb shell am instrument -w -e class com.keenfin.easypicker.RestoreBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class RestoreBenchmark {
+    private static final String TAG = "RestoreBenchmark";
+    private static final int[] COUNTS = {10, 100, 1000};
+    private static final int MAX_COUNT = 1000;
+
+    @Rule
+    public ActivityTestRule<PickerTestActivity> mActivityRule = new ActivityTestRule<>(PickerTestActivity.class);
+
+    private List<String> mImages;
+
+    @Before
+    public void setUp() throws IOException {
+        // replacing the largest list keeps half of it and brings as many new ones
+        mImages = TestImages.createSmall(InstrumentationRegistry.getTargetContext(), MAX_COUNT * 3 / 2);
+    }
+
+    @Test
+    public void restoreImages() {
+        Result first = null;
+        for (int count : COUNTS) {
+            final List<String> images = getImages(count, 0);
+            Result result = run("restoreImages " + count, new Action() {
+                @Override
+                public void run(PhotoPicker picker) {
+                    picker.restoreImages(images);
+                }
+            });
+
+            // one height change however many cells come in
+            assertEquals(1, result.mLayoutParams);
+            if (first == null)
+                first = result;
+            else
+                assertEquals(first.mLayoutRequests, result.mLayoutRequests);
+        }
+    }
+
+    @Test
+    public void setImages() {
+        Result first = null;
+        for (int count : COUNTS) {
+            final List<String> restored = getImages(count, 0);
+            // half of the list stays, the other half is new
+            final List<String> replaced = getImages(count, count / 2);
+            Result result = run("setImages " + count, new Action() {
+                @Override
+                public void prepare(PhotoPicker picker) {
+                    picker.restoreImages(restored);
+                }
+
+                @Override
+                public void run(PhotoPicker picker) {
+                    picker.setImages(replaced);
+                }
+            });
+
+            assertEquals(1, result.mLayoutParams);
+            if (first == null)
+                first = result;
+            else
+                assertEquals(first.mLayoutRequests, result.mLayoutRequests);
+        }
+    }
+
+    // distinct files, so diffing sees real changes
+    private List<String> getImages(int count, int shift) {
+        return new ArrayList<>(mImages.subList(shift, count + shift));
+    }
+
+    private Result run(String name, final Action action) {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final PickerTestActivity activity = mActivityRule.getActivity();
+        final CountingPhotoPicker[] picker = new CountingPhotoPicker[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                picker[0] = new CountingPhotoPicker(activity);
+                picker[0].setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+                activity.setContentView(picker[0]);
+            }
+        });
+        instrumentation.waitForIdleSync();
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                action.prepare(picker[0]);
+            }
+        });
+        instrumentation.waitForIdleSync();
+
+        final Result result = new Result();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                picker[0].startCounting();
+                long start = System.nanoTime();
+                action.run(picker[0]);
+                result.mCallNanos = System.nanoTime() - start;
+                result.mLayoutRequests = picker[0].mLayoutRequests;
+                result.mLayoutParams = picker[0].mLayoutParams;
+            }
+        });
+        instrumentation.waitForIdleSync();
+        result.mLayoutNanos = picker[0].mFirstLayoutNanos;
+        result.mLayouts = picker[0].mLayouts;
+
+        Bundle results = new Bundle();
+        results.putInt(name + ".layoutRequests", result.mLayoutRequests);
+        results.putInt(name + ".setLayoutParams", result.mLayoutParams);
+        results.putInt(name + ".layoutsUntilIdle", result.mLayouts);
+        results.putLong(name + ".callMicros", result.mCallNanos / 1000);
+        results.putLong(name + ".firstLayoutMicros", result.mLayoutNanos / 1000);
+        instrumentation.sendStatus(0, results);
+        Log.i(TAG, name + ": " + results);
+        return result;
+    }
+
+    private static abstract class Action {
+        void prepare(PhotoPicker picker) {
+        }
+
+        abstract void run(PhotoPicker picker);
+    }
+
+    private static class Result {
+        int mLayoutRequests, mLayoutParams, mLayouts;
+        long mCallNanos, mLayoutNanos;
+    }
+
+    // requests are counted from startCounting, first layout time is measured from it too
+    private static class CountingPhotoPicker extends PhotoPicker {
+        int mLayoutRequests, mLayoutParams, mLayouts;
+        long mStart, mFirstLayoutNanos;
+
+        CountingPhotoPicker(Context context) {
+            super(context);
+        }
+
+        void startCounting() {
+            mLayoutRequests = mLayoutParams = mLayouts = 0;
+            mFirstLayoutNanos = 0;
+            mStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestLayout() {
+            mLayoutRequests++;
+            super.requestLayout();
+        }
+
+        @Override
+        public void setLayoutParams(ViewGroup.LayoutParams params) {
+            mLayoutParams++;
+            super.setLayoutParams(params);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            super.onLayout(changed, l, t, r, b);
+            mLayouts++;
+            if (mStart != 0 && mFirstLayoutNanos == 0)
+                mFirstLayoutNanos = System.nanoTime() - mStart;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.media.ExifInterface;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Fixed set of camera-like JPEGs written once to the cache dir: gradient with noise, one of them rotated by EXIF
+class TestImages {
+    private static final int[][] SIZES = {{640, 480}, {1600, 1200}, {4032, 3024}, {3024, 4032}};
+    private static final int SMALL_SIZE = 96;
+    private static final int QUALITY = 90;
+
+    static List<String> create(Context context) throws IOException {
+        File directory = getDirectory(context);
+        List<String> paths = new ArrayList<>(SIZES.length);
+        for (int i = 0; i < SIZES.length; i++) {
+            File file = new File(directory, SIZES[i][0] + "x" + SIZES[i][1] + ".jpg");
+            if (!file.exists()) {
+                write(file, SIZES[i][0], SIZES[i][1]);
+                if (i == SIZES.length - 1) {
+                    ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+                    exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
+                    exif.saveAttributes();
+                }
+            }
+
+            paths.add(file.getAbsolutePath());
+        }
+
+        return paths;
+    }
+
+    // many distinct small files for list benchmarks, where decode cost does not matter
+    static List<String> createSmall(Context context, int count) throws IOException {
+        File directory = getDirectory(context);
+        List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, "small_" + i + ".jpg");
+            if (!file.exists())
+                write(file, SMALL_SIZE, SMALL_SIZE);
+
+            paths.add(file.getAbsolutePath());
+        }
+
+        return paths;
+    }
+
+    private static File getDirectory(Context context) throws IOException {
+        File directory = new File(context.getCacheDir(), "easypicker_test_images");
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Can not create " + directory);
+
+        return directory;
+    }
+
+    private static void write(File file, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, 0xff2060a0, 0xffe0a040, Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+
+        // noise keeps the file close to a photo in size
+        Random random = new Random(width * 31 + height);
+        paint.setShader(null);
+        for (int i = 0; i < width * height / 64; i++) {
+            paint.setColor(0x40000000 | random.nextInt(0xffffff));
+            canvas.drawPoint(random.nextInt(width), random.nextInt(height), paint);
+        }
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, os);
+        } finally {
+            os.close();
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Multipart bodies and zip archives of attachments written straight to the output. Files and content uris
+// are streamed through FileCopier buffers, so memory stays the same whatever the total size is.
+public class AttachmentPackager {
+    private final Context mContext;
+    private final AttachmentWriter mWriter = new AttachmentWriter();
+
+    public AttachmentPackager(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    // Form field of every image part.
+    public void setFieldName(String fieldName) {
+        mWriter.setFieldName(fieldName);
+    }
+
+    public static String generateBoundary() {
+        return AttachmentWriter.generateBoundary();
+    }
+
+    public static String getMultipartContentType(String boundary) {
+        return AttachmentWriter.getMultipartContentType(boundary);
+    }
+
+    /**
+     * Body of multipart/form-data request, one part per image. Use chunked or fixed length streaming mode
+     * of HttpURLConnection, otherwise the connection buffers the whole body itself.
+     *
+     * @param listener (Optional) Bytes of images written so far, total is unknown. Cancels the write.
+     * @throws FileNotFoundException if an image can not be opened.
+     */
+    public void writeMultipart(List<String> imagesPathOrUri, String boundary, OutputStream os, FileCopier.Listener listener)
+            throws IOException {
+        mWriter.writeMultipart(getSources(imagesPathOrUri), boundary, os, listener);
+    }
+
+    public void writeMultipart(List<String> imagesPathOrUri, String boundary, WritableByteChannel channel, FileCopier.Listener listener)
+            throws IOException {
+        writeMultipart(imagesPathOrUri, boundary, Channels.newOutputStream(channel), listener);
+    }
+
+    /**
+     * Zip archive with an entry per image. Output stays open, it belongs to the caller.
+     *
+     * @param listener (Optional) Bytes of images written so far, total is unknown. Cancels the write.
+     * @throws FileNotFoundException if an image can not be opened.
+     */
+    public void writeZip(List<String> imagesPathOrUri, OutputStream os, FileCopier.Listener listener) throws IOException {
+        mWriter.writeZip(getSources(imagesPathOrUri), os, listener);
+    }
+
+    public void writeZip(List<String> imagesPathOrUri, WritableByteChannel channel, FileCopier.Listener listener) throws IOException {
+        writeZip(imagesPathOrUri, Channels.newOutputStream(channel), listener);
+    }
+
+    private List<PathOrUriSource> getSources(List<String> imagesPathOrUri) {
+        List<PathOrUriSource> sources = new ArrayList<>(imagesPathOrUri.size());
+        for (String image : imagesPathOrUri)
+            sources.add(new PathOrUriSource(image));
+
+        return sources;
+    }
+
+    // names and mime types are looked up only when the writer reaches the image
+    private class PathOrUriSource implements AttachmentWriter.Source {
+        private final String mPathOrUri;
+        private final boolean mIsUri;
+
+        PathOrUriSource(String pathOrUri) {
+            mPathOrUri = pathOrUri;
+            mIsUri = BitmapUtil.isUri(pathOrUri);
+        }
+
+        @Override
+        public String getName() {
+            return mIsUri ? FileUtil.getFileName(mContext, Uri.parse(mPathOrUri)) : FileUtil.getName(mPathOrUri);
+        }
+
+        @Override
+        public String getMimeType() {
+            return mIsUri ? mContext.getContentResolver().getType(Uri.parse(mPathOrUri)) : BitmapUtil.getMimeTypeOfFile(mPathOrUri);
+        }
+
+        @Override
+        public InputStream open() throws FileNotFoundException {
+            if (!mIsUri)
+                return new FileInputStream(mPathOrUri);
+
+            InputStream is = mContext.getContentResolver().openInputStream(Uri.parse(mPathOrUri));
+            if (is == null)
+                throw new FileNotFoundException(mPathOrUri);
+
+            return is;
+        }
+    }
+}
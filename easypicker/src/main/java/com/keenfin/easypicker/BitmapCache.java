@@ -0,0 +1,140 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.media.ExifInterface;
+import android.support.v4.util.LruCache;
+
+// Process-wide memory cache of decoded images, shared by every PhotoPicker and PreviewActivity
+public class BitmapCache {
+    private static BitmapCache sInstance;
+
+    private final LruCache<Key, OrientedBitmap> mCache;
+
+    public static synchronized BitmapCache getInstance() {
+        if (sInstance == null)
+            sInstance = new BitmapCache((int) (Runtime.getRuntime().maxMemory() / Constants.MEMORY_CACHE_HEAP_DIVIDER));
+
+        return sInstance;
+    }
+
+    private BitmapCache(int maxBytes) {
+        mCache = new LruCache<Key, OrientedBitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, OrientedBitmap bitmap) {
+                return getByteCount(bitmap.getBitmap());
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, OrientedBitmap oldValue, OrientedBitmap newValue) {
+                BitmapPool.getInstance().release(oldValue.getBitmap());
+            }
+        };
+    }
+
+    public OrientedBitmap get(Key key) {
+        OrientedBitmap bitmap = mCache.get(key);
+        if (bitmap != null && bitmap.getBitmap().isRecycled()) {
+            mCache.remove(key);
+            bitmap = null;
+        }
+
+        DecodeMetrics.onCacheLookup(DecodeMetrics.CACHE_MEMORY, bitmap != null);
+        return bitmap;
+    }
+
+    // cached bitmap with a reference taken for the caller, it must be given back to BitmapPool.release
+    public OrientedBitmap acquire(Key key) {
+        BitmapPool pool = BitmapPool.getInstance();
+        synchronized (pool) {
+            OrientedBitmap bitmap = get(key);
+            if (bitmap != null)
+                pool.acquire(bitmap.getBitmap());
+
+            return bitmap;
+        }
+    }
+
+    public void put(Key key, OrientedBitmap bitmap) {
+        if (bitmap != null && !bitmap.getBitmap().isRecycled()) {
+            BitmapPool.getInstance().acquire(bitmap.getBitmap());
+            mCache.put(key, bitmap);
+        }
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    public static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bitmap.getAllocationByteCount();
+        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1)
+            return bitmap.getByteCount();
+        else
+            return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    public static class Key {
+        // drawn in the EXIF orientation of the source
+        public static final int ORIENTATION_SOURCE = ExifInterface.ORIENTATION_UNDEFINED;
+
+        private final String mPathOrUri;
+        private final int mSize;
+        private final int mOrientation;
+
+        public Key(String pathOrUri, int size) {
+            this(pathOrUri, size, ORIENTATION_SOURCE);
+        }
+
+        public Key(String pathOrUri, int size, int orientation) {
+            mPathOrUri = pathOrUri;
+            mSize = size;
+            mOrientation = orientation;
+        }
+
+        public String getPathOrUri() {
+            return mPathOrUri;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public int getOrientation() {
+            return mOrientation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return mSize == key.mSize && mOrientation == key.mOrientation
+                    && (mPathOrUri == null ? key.mPathOrUri == null : mPathOrUri.equals(key.mPathOrUri));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mPathOrUri == null ? 0 : mPathOrUri.hashCode();
+            result = 31 * result + mSize;
+            result = 31 * result + mOrientation;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mPathOrUri + "@" + mSize + "#" + mOrientation;
+        }
+    }
+}
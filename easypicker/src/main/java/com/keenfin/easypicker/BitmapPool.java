@@ -0,0 +1,133 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.WeakHashMap;
+
+// Reusable bitmaps for BitmapFactory inBitmap, bucketed by config and allocation size.
+// Bitmaps are counted while cached or displayed and return to the pool when nobody holds them.
+public class BitmapPool {
+    private static final int MAX_REUSE_FACTOR = 2;
+    private static BitmapPool sInstance;
+
+    private final long mMaxBytes;
+    private final SizePool<Bitmap.Config, Bitmap> mPool = new SizePool<>();
+    // Bitmap keeps identity equals and hashCode, weak keys let a bitmap dropped without release be collected
+    private final WeakHashMap<Bitmap, Integer> mReferences = new WeakHashMap<>();
+    private final ArrayDeque<byte[]> mTempStorage = new ArrayDeque<>();
+
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null)
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / Constants.BITMAP_POOL_HEAP_DIVIDER);
+
+        return sInstance;
+    }
+
+    private BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public static boolean isSupported() {
+        // earlier versions reuse only bitmaps of exactly the same size and without sampling
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported() || width <= 0 || height <= 0)
+            return null;
+
+        config = config == null ? Bitmap.Config.ARGB_8888 : config;
+        Bitmap bitmap = mPool.poll(config, width * height * getBytesPerPixel(config), MAX_REUSE_FACTOR);
+        if (bitmap == null)
+            return null;
+
+        try {
+            bitmap.reconfigure(width, height, config);
+            bitmap.eraseColor(0);
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            bitmap.recycle();
+            return null;
+        }
+
+        return bitmap;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || mReferences.containsKey(bitmap) || mPool.contains(bitmap))
+            return;
+
+        int size = BitmapCache.getByteCount(bitmap);
+        if (!isSupported() || !bitmap.isMutable() || bitmap.getConfig() == null || size > mMaxBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+
+        mPool.add(bitmap.getConfig(), size, bitmap);
+        trim();
+    }
+
+    public synchronized void acquire(Bitmap bitmap) {
+        if (bitmap == null)
+            return;
+
+        Integer count = mReferences.get(bitmap);
+        mReferences.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = mReferences.get(bitmap);
+        if (count == null)
+            return;
+
+        if (count > 1)
+            mReferences.put(bitmap, count - 1);
+        else {
+            mReferences.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mPool.clear())
+            bitmap.recycle();
+    }
+
+    public synchronized byte[] obtainTempStorage() {
+        byte[] buffer = mTempStorage.poll();
+        return buffer == null ? new byte[Constants.DECODE_BUFFER_SIZE] : buffer;
+    }
+
+    public synchronized void releaseTempStorage(byte[] buffer) {
+        if (buffer != null && buffer.length == Constants.DECODE_BUFFER_SIZE
+                && mTempStorage.size() < Runtime.getRuntime().availableProcessors() * 2)
+            mTempStorage.add(buffer);
+    }
+
+    private void trim() {
+        Bitmap oldest;
+        while (mPool.getSize() > mMaxBytes && (oldest = mPool.pollOldest()) != null)
+            oldest.recycle();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
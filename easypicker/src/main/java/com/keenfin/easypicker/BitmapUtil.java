@@ -9,154 +9,325 @@ package com.keenfin.easypicker;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.Paint;
 import android.net.Uri;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
-import android.support.annotation.RequiresApi;
+import android.support.media.ExifInterface;
+import android.util.DisplayMetrics;
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
 public class BitmapUtil {
+    // backend is chosen once, BitmapFactory stays for older API levels
+    private static final boolean USE_IMAGE_DECODER = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+
     // thanks to http://stackoverflow.com/questions/477572/strange-out-of-memory-issue-while-loading-an-image-to-a-bitmap-object
     public static Bitmap getBitmap(String path, int requiredSize) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
-        int scale = 1;
+        return getBitmap(path, requiredSize, new CancelSignal());
+    }
 
-        while (options.outWidth / scale > requiredSize && options.outHeight / scale > requiredSize)
-            scale *= 2;
+    // getBitmap variants return pixels physically rotated by EXIF orientation, for display use decodeBitmap
+    public static Bitmap getBitmap(String path, int requiredSize, CancelSignal signal) {
+        return toRotatedBitmap(decodeBitmap(path, requiredSize, signal));
+    }
 
-        options.inSampleSize = scale;
-        options.inJustDecodeBounds = false;
-        options.inDither = false;
-        options.inPurgeable = true;
-        options.inInputShareable = true;
-        options.inTempStorage = new byte[32 * 1024];
+    public static Bitmap getBitmap(Context context, Uri uri, int requiredSize, CancelSignal signal) {
+        return toRotatedBitmap(decodeBitmap(context, uri, requiredSize, signal));
+    }
 
-        Bitmap result = null;
-        File file = new File(path);
-        FileInputStream fs = null;
-        try {
-            fs = new FileInputStream(file);
+    public static OrientedBitmap decodeBitmap(String path, int requiredSize, CancelSignal signal) {
+        return decodeBitmap(path, requiredSize, false, signal);
+    }
 
-            try {
-                result = BitmapFactory.decodeFileDescriptor(fs.getFD(), null, options);
-            } catch (OutOfMemoryError oom) {
-                oom.printStackTrace();
+    /**
+     * @param exifThumbnail Take the embedded EXIF thumbnail when it covers the size, it costs header reads
+     *                      instead of the whole file. Otherwise the decode goes on with the same backend.
+     */
+    public static OrientedBitmap decodeBitmap(String path, int requiredSize, boolean exifThumbnail, CancelSignal signal) {
+        if (USE_IMAGE_DECODER && !exifThumbnail)
+            return toOrientedBitmap(ImageDecoderBackend.getBitmap(path, requiredSize, signal));
 
-                try {
-                    options.inSampleSize *= 4;
-                    result = BitmapFactory.decodeFileDescriptor(fs.getFD(), null, options);
-                } catch (OutOfMemoryError oom1) {
-                    oom.printStackTrace();
-                }
-            }
+        FileInputStream fs;
+        try {
+            fs = new FileInputStream(path);
+            DecodeMetrics.onOpen();
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+
+        try {
+            return decodeBitmap(fs, path, requiredSize, exifThumbnail, signal);
         } finally {
-            if (fs != null)
-                try {
-                    fs.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            close(fs);
         }
+    }
 
-        ExifInterface exif;
+    public static OrientedBitmap decodeBitmap(Context context, Uri uri, int requiredSize, CancelSignal signal) {
+        if (USE_IMAGE_DECODER)
+            return toOrientedBitmap(ImageDecoderBackend.getBitmap(context, uri, requiredSize, signal));
+
+        ParcelFileDescriptor pfd = openFileDescriptor(context, uri);
+        if (pfd == null)
+            return null;
+
+        DecodeMetrics.onOpen();
+        try {
+            return decodeBitmap(new FileInputStream(pfd.getFileDescriptor()), null, requiredSize, false, signal);
+        } finally {
+            closeFileDescriptor(pfd);
+        }
+    }
+
+    // Orientation, EXIF thumbnail, bounds and pixels come from the single opened source. Pixels are left as stored,
+    // unless ImageDecoder takes over after a missed thumbnail, path is needed for that on P only.
+    private static OrientedBitmap decodeBitmap(FileInputStream fs, String path, int requiredSize, boolean exifThumbnail, CancelSignal signal) {
+        DecodeSource source = new DecodeSource(fs, signal);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap result = null;
         int orientation = ExifInterface.ORIENTATION_NORMAL;
+
         try {
-            exif = new ExifInterface(path);
-            orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            DecodeMetrics.onDecode();
+            long start = DecodeMetrics.startTimer();
+            ExifInterface exif = null;
+            try {
+                // stream is not seekable, so thumbnail bytes are kept in memory while header is parsed
+                exif = new ExifInterface(source.getStream());
+                orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (signal.isCancelled())
+                return null;
+
+            if (exifThumbnail && exif != null) {
+                result = decodeExifThumbnail(exif, requiredSize, signal);
+                if (result != null) {
+                    DecodeMetrics.onStage(DecodeMetrics.STAGE_DECODE, start);
+                    return signal.isCancelled() ? null : new OrientedBitmap(result, orientation);
+                }
+
+                if (USE_IMAGE_DECODER && (path != null || Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q))
+                    return toOrientedBitmap(ImageDecoderBackend.continueDecode(fs.getFD(), path, requiredSize, signal));
+            }
+
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(source.rewind(true), null, options);
+            int scale = calculateSampleSize(options.outWidth, options.outHeight, requiredSize);
+            DecodeMetrics.onStage(DecodeMetrics.STAGE_BOUNDS, start);
+
+            options.inSampleSize = scale;
+            options.inJustDecodeBounds = false;
+            options.inDither = false;
+            fitToMemory(options);
+            setReusable(options, DecodeMath.ceilDiv(options.outWidth, options.inSampleSize), DecodeMath.ceilDiv(options.outHeight, options.inSampleSize));
+            options.inTempStorage = BitmapPool.getInstance().obtainTempStorage();
+            signal.setOptions(options);
+
+            start = DecodeMetrics.startTimer();
+            result = decodeStream(source, options, signal);
+            DecodeMetrics.onStage(DecodeMetrics.STAGE_DECODE, start);
+            if (result != options.inBitmap)
+                DecodeMetrics.onBitmapAllocated(result);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            signal.setOptions(null);
+            BitmapPool.getInstance().releaseTempStorage(options.inTempStorage);
         }
 
-        return rotateBitmap(result, orientation);
+        if (result == null || signal.isCancelled())
+            return null;
+
+        return new OrientedBitmap(result, orientation);
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    public static Bitmap getBitmap(FileDescriptor fd) {
+    // Null when there is no thumbnail or it does not cover the required size, then full decode is needed.
+    private static Bitmap decodeExifThumbnail(ExifInterface exif, int requiredSize, CancelSignal signal) {
+        byte[] data = exif.getThumbnail();
+        if (data == null || signal.isCancelled())
+            return null;
+
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        options.inSampleSize = 3;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!isThumbnailLargeEnough(options.outWidth, options.outHeight, requiredSize))
+            return null;
+
+        // some cameras keep 4:3 thumbnail with black bars for other aspects
+        int width = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, exif.getAttributeInt(ExifInterface.TAG_PIXEL_X_DIMENSION, 0));
+        int height = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, exif.getAttributeInt(ExifInterface.TAG_PIXEL_Y_DIMENSION, 0));
+        if (width > 0 && height > 0 && !DecodeMath.isSameAspect(width, height, options.outWidth, options.outHeight))
+            return null;
+
         options.inJustDecodeBounds = false;
-        options.inDither = false;
-        options.inPurgeable = true;
-        options.inInputShareable = true;
-        options.inTempStorage = new byte[32 * 1024];
+        setReusable(options, options.outWidth, options.outHeight);
+        Bitmap thumbnail;
+        try {
+            thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        if (thumbnail != null && thumbnail != options.inBitmap)
+            DecodeMetrics.onBitmapAllocated(thumbnail);
+
+        return thumbnail;
+    }
+
+    // Thumbnails are upscaled by at most a quarter to fill the cell.
+    public static boolean isThumbnailLargeEnough(int width, int height, int requiredSize) {
+        return DecodeMath.isThumbnailLargeEnough(width, height, requiredSize);
+    }
+
+    private static OrientedBitmap toOrientedBitmap(Bitmap bitmap) {
+        return bitmap == null ? null : new OrientedBitmap(bitmap);
+    }
+
+    private static Bitmap toRotatedBitmap(OrientedBitmap bitmap) {
+        return bitmap == null ? null : bitmap.toRotatedBitmap();
+    }
+
+    public static int calculateSampleSize(int width, int height, int requiredSize) {
+        return DecodeMath.calculateSampleSize(width, height, requiredSize);
+    }
+
+    @Deprecated
+    public static Bitmap getBitmap(FileDescriptor fd) {
+        DisplayMetrics metrics = Resources.getSystem().getDisplayMetrics();
+        return getBitmap(fd, Math.max(metrics.widthPixels, metrics.heightPixels), new CancelSignal());
+    }
 
+    public static Bitmap getBitmap(FileDescriptor fd, int requiredSize, CancelSignal signal) {
+        return toRotatedBitmap(decodeBitmap(fd, requiredSize, signal));
+    }
+
+    public static OrientedBitmap decodeBitmap(FileDescriptor fd, int requiredSize, CancelSignal signal) {
+        return decodeBitmap(fd, requiredSize, false, signal);
+    }
+
+    // Descriptor stays open, it belongs to the caller. See decodeBitmap(String, int, boolean, CancelSignal).
+    public static OrientedBitmap decodeBitmap(FileDescriptor fd, int requiredSize, boolean exifThumbnail, CancelSignal signal) {
+        if (USE_IMAGE_DECODER && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && !exifThumbnail)
+            return toOrientedBitmap(ImageDecoderBackend.getBitmap(fd, requiredSize, signal));
+
+        FileInputStream fs = new FileInputStream(fd);
+        try {
+            fs.getChannel().position(0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return decodeBitmap(fs, null, requiredSize, exifThumbnail, signal);
+    }
+
+    // decodes into a pooled bitmap when one fits, otherwise lets the old purgeable mode work
+    private static void setReusable(BitmapFactory.Options options, int width, int height) {
+        if (BitmapPool.isSupported()) {
+            options.inMutable = true;
+            options.inBitmap = BitmapPool.getInstance().get(width, height, options.inPreferredConfig);
+        } else {
+            options.inPurgeable = true;
+            options.inInputShareable = true;
+        }
+    }
+
+    // pick cheaper decode up front instead of waiting for OutOfMemoryError: 565 for opaque jpegs, then larger sample
+    private static void fitToMemory(BitmapFactory.Options options) {
+        Runtime runtime = Runtime.getRuntime();
+        long available = (runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory()) / Constants.DECODE_HEAP_DIVIDER;
+
+        int bytesPerPixel = 4;
+        if (DecodeMath.getDecodeSize(options.outWidth, options.outHeight, options.inSampleSize, bytesPerPixel) > available
+                && "image/jpeg".equals(options.outMimeType)) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            bytesPerPixel = 2;
+        }
+
+        options.inSampleSize = DecodeMath.fitSampleSize(options.outWidth, options.outHeight, options.inSampleSize, bytesPerPixel, available);
+    }
+
+    static void close(Closeable closeable) {
+        if (closeable != null)
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+    }
+
+    // reads through the signal so cancellation stops file I/O as well
+    private static Bitmap decodeStream(DecodeSource source, BitmapFactory.Options options, CancelSignal signal) throws IOException {
         Bitmap result = null;
         try {
-            result = BitmapFactory.decodeFileDescriptor(fd, null, options);
+            result = BitmapFactory.decodeStream(source.rewind(false), null, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null)
+                throw e;
+
+            // pooled bitmap did not fit the image, decode into a new one
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            return decodeStream(source, options, signal);
         } catch (OutOfMemoryError oom) {
             oom.printStackTrace();
 
+            if (signal.isCancelled())
+                return null;
+
+            DecodeMetrics.onOutOfMemoryFallback();
+
             try {
+                BitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
                 options.inSampleSize *= 4;
-                result = BitmapFactory.decodeFileDescriptor(fd, null, options);
+                result = BitmapFactory.decodeStream(source.rewind(false), null, options);
             } catch (OutOfMemoryError oom1) {
                 oom.printStackTrace();
             }
         }
 
-        ExifInterface exif;
-        int orientation = ExifInterface.ORIENTATION_NORMAL;
-        try {
-            exif = new ExifInterface(fd);
-            orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return rotateBitmap(result, orientation);
+        return result;
     }
 
     // http://stackoverflow.com/a/20480741/2088273
     public static Bitmap rotateBitmap(Bitmap bitmap, int orientation) {
-        Matrix matrix = new Matrix();
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_NORMAL:
-                return bitmap;
-            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-                matrix.setScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_180:
-                matrix.setRotate(180);
-                break;
-            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                matrix.setRotate(180);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_TRANSPOSE:
-                matrix.setRotate(90);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_90:
-                matrix.setRotate(90);
-                break;
-            case ExifInterface.ORIENTATION_TRANSVERSE:
-                matrix.setRotate(-90);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                matrix.setRotate(-90);
-                break;
-            default:
-                return bitmap;
-        }
+        Matrix matrix = getOrientationMatrix(orientation, bitmap.getWidth(), bitmap.getHeight());
+        if (matrix == null)
+            return bitmap;
 
+        long start = DecodeMetrics.startTimer();
         try {
-            Bitmap bmRotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-            bitmap.recycle();
+            boolean swap = isSidesSwapped(orientation);
+            int width = swap ? bitmap.getHeight() : bitmap.getWidth();
+            int height = swap ? bitmap.getWidth() : bitmap.getHeight();
+
+            Bitmap.Config config = bitmap.getConfig() == null ? Bitmap.Config.ARGB_8888 : bitmap.getConfig();
+            Bitmap bmRotated = BitmapPool.getInstance().get(width, height, config);
+            if (bmRotated == null) {
+                bmRotated = Bitmap.createBitmap(width, height, config);
+                DecodeMetrics.onBitmapAllocated(bmRotated);
+            }
+
+            Canvas canvas = new Canvas(bmRotated);
+            canvas.drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            canvas.setBitmap(null);
+            BitmapPool.getInstance().put(bitmap);
+            DecodeMetrics.onStage(DecodeMetrics.STAGE_ROTATE, start);
             return bmRotated;
         } catch (OutOfMemoryError e) {
             e.printStackTrace();
@@ -164,17 +335,69 @@ public class BitmapUtil {
         }
     }
 
+    // Transform of width x height pixels into EXIF orientation, placed at origin; null if nothing to do.
+    public static Matrix getOrientationMatrix(int orientation, int width, int height) {
+        float[] values = OrientationMath.getTransform(orientation, width, height);
+        if (values == null)
+            return null;
+
+        Matrix matrix = new Matrix();
+        matrix.setValues(values);
+        return matrix;
+    }
+
+    public static boolean isSidesSwapped(int orientation) {
+        return OrientationMath.isSidesSwapped(orientation);
+    }
+
+    /**
+     * @deprecated Descriptor behind the returned one is never closed. Use {@link #openFileDescriptor(Context, Uri)}
+     * and {@link #closeFileDescriptor(ParcelFileDescriptor)} off the main thread.
+     */
+    @Deprecated
     public static FileDescriptor getFileDescriptor(Context context, String path) {
-        Uri uri = Uri.parse(path);
-        FileDescriptor fd = null;
+        ParcelFileDescriptor pfd = openFileDescriptor(context, Uri.parse(path));
+        return pfd == null ? null : pfd.getFileDescriptor();
+    }
+
+    // Since R anything but an absolute path is an uri, content uris are read as such on all versions.
+    public static boolean isUri(String pathOrUri) {
+        if (pathOrUri == null)
+            return false;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+            return !pathOrUri.startsWith("/");
+
+        return pathOrUri.startsWith(ContentResolver.SCHEME_CONTENT + "://");
+    }
+
+    // Binder call to the provider, do not run it on the main thread.
+    public static ParcelFileDescriptor openFileDescriptor(Context context, Uri uri) {
+        ParcelFileDescriptor pfd = null;
         ContentResolver contentResolver = context.getContentResolver();
         try {
-            ParcelFileDescriptor pfd = contentResolver.openFileDescriptor(uri, "r");
-            fd = pfd.getFileDescriptor();
-        } catch (FileNotFoundException e) {
+            pfd = contentResolver.openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException e) {
             e.printStackTrace();
         }
-        return fd;
+
+        if (pfd != null)
+            DecodeMetrics.onDescriptorOpened();
+
+        return pfd;
+    }
+
+    public static void closeFileDescriptor(ParcelFileDescriptor pfd) {
+        if (pfd == null)
+            return;
+
+        try {
+            pfd.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        DecodeMetrics.onDescriptorClosed();
     }
 
     // http://stackoverflow.com/a/19739471/2088273
@@ -7,49 +7,266 @@
 
 package com.keenfin.easypicker;
 
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
+import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
 import android.widget.ImageView;
 import android.widget.Toast;
 
 import java.io.FileDescriptor;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 // http://developer.android.com/intl/ru/training/displaying-bitmaps/display-bitmap.html
-public class BitmapWorkerTask extends AsyncTask<Void, Void, Bitmap> {
-    private final WeakReference<ImageView> mIvReference;
+public class BitmapWorkerTask implements Runnable, Comparable<BitmapWorkerTask> {
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private WeakReference<ImageView> mIvReference;
+    private final Context mContext;
     private final int mSize;
     private final String mPath;
     private final FileDescriptor mFD;
+    private final BitmapCache.Key mKey;
+    private final long mSequence;
+    private final CancelSignal mSignal = new CancelSignal();
+    private volatile int mPriority = DecodeScheduler.PRIORITY_VISIBLE;
+    private boolean mMediaThumbnails;
+    private boolean mExifThumbnails;
+    private boolean mFinished;
+    private long mSubmitted;
+
+    public BitmapWorkerTask(ImageView imageView, int size, String pathOrUri) {
+        this(imageView, size, pathOrUri, null);
+    }
+
+    // Only fills the caches until an ImageView is attached, used for prefetch.
+    public BitmapWorkerTask(Context context, int size, String pathOrUri) {
+        this(null, context, size, pathOrUri, null);
+    }
 
+    /**
+     * @deprecated Descriptor has to be opened on the caller thread and stays open. Use
+     * {@link #BitmapWorkerTask(ImageView, int, String)}, it opens and closes descriptor in background.
+     */
+    @Deprecated
     public BitmapWorkerTask(ImageView imageView, int size, String path, FileDescriptor fd) {
+        this(imageView, imageView.getContext(), size, path, fd);
+    }
+
+    private BitmapWorkerTask(ImageView imageView, Context context, int size, String path, FileDescriptor fd) {
         // Use a WeakReference to ensure the ImageView can be garbage collected
         mIvReference = new WeakReference<>(imageView);
+        mContext = context.getApplicationContext();
         mSize = size;
         mPath = path;
         mFD = fd;
+        mKey = new BitmapCache.Key(path, size);
+        mSequence = sSequence.getAndIncrement();
+    }
+
+    public void execute() {
+        ImageView imageView = mIvReference.get();
+        if (imageView != null)
+            bind(imageView);
+
+        mSubmitted = DecodeMetrics.startTimer();
+        DecodeScheduler.getInstance().submit(this);
+    }
+
+    // Result of already submitted task goes to this ImageView, see isFinished.
+    public void attach(ImageView imageView) {
+        mIvReference = new WeakReference<>(imageView);
+        bind(imageView);
+    }
+
+    private void bind(ImageView imageView) {
+        cancel(imageView);
+        imageView.setTag(R.id.easypicker_task, this);
+    }
+
+    public void cancel() {
+        mSignal.cancel();
+        DecodeScheduler.getInstance().remove(this);
+    }
+
+    public boolean isCancelled() {
+        return mSignal.isCancelled();
+    }
+
+    // Result was delivered or dropped, attaching a view is too late.
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public BitmapCache.Key getKey() {
+        return mKey;
+    }
+
+    // Content uris are shown with MediaStore thumbnails when they cover the size, set before execute.
+    public void setMediaThumbnails(boolean enabled) {
+        mMediaThumbnails = enabled;
+    }
+
+    // Embedded EXIF thumbnail is used when it covers the size, set before execute.
+    public void setExifThumbnails(boolean enabled) {
+        mExifThumbnails = enabled;
+    }
+
+    // Show bitmap which reference is already held by caller, reference to previous one is given back.
+    // Orientation is applied by the drawable, pixels are not copied.
+    public static void setImageBitmap(ImageView imageView, OrientedBitmap bitmap) {
+        releaseImage(imageView);
+        imageView.setTag(R.id.easypicker_bitmap, bitmap.getBitmap());
+        imageView.setImageDrawable(bitmap.toDrawable(imageView.getResources()));
+    }
+
+    public static void releaseImage(ImageView imageView) {
+        Object bitmap = imageView.getTag(R.id.easypicker_bitmap);
+        imageView.setTag(R.id.easypicker_bitmap, null);
+        imageView.setImageDrawable(null);
+        if (bitmap instanceof Bitmap)
+            BitmapPool.getInstance().release((Bitmap) bitmap);
+    }
+
+    public static BitmapWorkerTask getTask(ImageView imageView) {
+        Object task = imageView.getTag(R.id.easypicker_task);
+        return task instanceof BitmapWorkerTask ? (BitmapWorkerTask) task : null;
+    }
+
+    // Cancel decode bound to this ImageView, its result will be dropped.
+    public static void cancel(ImageView imageView) {
+        BitmapWorkerTask task = getTask(imageView);
+        if (task != null) {
+            task.cancel();
+            imageView.setTag(R.id.easypicker_task, null);
+        }
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    void setPriority(int priority) {
+        mPriority = priority;
     }
 
-    // Decode image in background.
     @Override
-    protected Bitmap doInBackground(Void... params)
-    {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && mFD != null) {
-            return BitmapUtil.getBitmap(mFD);
+    public int compareTo(@NonNull BitmapWorkerTask other) {
+        if (mPriority != other.mPriority)
+            return mPriority > other.mPriority ? -1 : 1;
+
+        return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+    }
+
+    @Override
+    public void run() {
+        if (isCancelled())
+            return;
+
+        DecodeMetrics.onQueueWait(mSubmitted);
+        final OrientedBitmap bitmap = decode();
+        DecodeScheduler.getInstance().post(new Runnable() {
+            @Override
+            public void run() {
+                onPostExecute(bitmap);
+            }
+        });
+    }
+
+    // Decode image in background.
+    // Result carries a pool reference for the ImageView.
+    private OrientedBitmap decode() {
+        OrientedBitmap bitmap = BitmapCache.getInstance().acquire(mKey);
+        if (bitmap != null)
+            return bitmap;
+
+        // content uri descriptor belongs to this job only and is closed when it ends
+        ParcelFileDescriptor pfd = null;
+        FileDescriptor fd = mFD;
+        if (fd == null && BitmapUtil.isUri(mPath)) {
+            pfd = BitmapUtil.openFileDescriptor(mContext, Uri.parse(mPath));
+            if (pfd != null)
+                fd = pfd.getFileDescriptor();
+        }
+
+        try {
+            return decode(fd);
+        } finally {
+            BitmapUtil.closeFileDescriptor(pfd);
+        }
+    }
+
+    private OrientedBitmap decode(FileDescriptor fd) {
+        OrientedBitmap bitmap;
+        boolean isUri = fd != null && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R || BitmapUtil.isUri(mPath));
+        String diskKey = null;
+        DiskCache diskCache = null;
+        if (DiskCache.isCacheable(mSize)) {
+            diskCache = DiskCache.getInstance(mContext);
+            if (!isUri)
+                diskKey = DiskCache.getKey(mPath, mSize);
+            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                diskKey = DiskCache.getKey(mPath, fd, mSize);
+
+            bitmap = diskCache.get(diskKey);
+            if (bitmap != null) {
+                BitmapPool.getInstance().acquire(bitmap.getBitmap());
+                BitmapCache.getInstance().put(mKey, bitmap);
+                return bitmap;
+            }
+        }
+
+        if (isCancelled())
+            return null;
+
+        if (mMediaThumbnails && BitmapUtil.isUri(mPath)) {
+            // provider keeps its own thumbnail cache, so it is not copied to disk cache
+            bitmap = MediaThumbnails.load(mContext, Uri.parse(mPath), mSize, mSignal);
+            if (bitmap != null) {
+                BitmapPool.getInstance().acquire(bitmap.getBitmap());
+                BitmapCache.getInstance().put(mKey, bitmap);
+                return bitmap;
+            }
+        }
+
+        if (isCancelled())
+            return null;
+
+        // EXIF thumbnail is tried on the same opened source before bounds and pixels are read
+        if (isUri) {
+            bitmap = BitmapUtil.decodeBitmap(fd, mSize, mExifThumbnails, mSignal);
         } else {
-            return BitmapUtil.getBitmap(mPath, mSize);
+            bitmap = BitmapUtil.decodeBitmap(mPath, mSize, mExifThumbnails, mSignal);
         }
+
+        if (bitmap == null)
+            return null;
+
+        BitmapPool.getInstance().acquire(bitmap.getBitmap());
+        BitmapCache.getInstance().put(mKey, bitmap);
+        if (diskCache != null)
+            diskCache.put(diskKey, bitmap);
+
+        return bitmap;
     }
 
-    // Once complete, see if ImageView is still around and set bitmap.
-    @Override
-    protected void onPostExecute(Bitmap bitmap) {
-        if (mIvReference.get() != null) {
-            if (bitmap == null)
-                Toast.makeText(mIvReference.get().getContext(), R.string.null_bitmap, Toast.LENGTH_SHORT).show();
-            else
-                mIvReference.get().setImageBitmap(bitmap);
+    // Once complete, see if ImageView is still around and still waits for this task, then set bitmap.
+    private void onPostExecute(OrientedBitmap bitmap) {
+        mFinished = true;
+        ImageView imageView = mIvReference.get();
+        if (imageView == null || isCancelled() || getTask(imageView) != this) {
+            if (bitmap != null)
+                BitmapPool.getInstance().release(bitmap.getBitmap());
+            return;
         }
+
+        imageView.setTag(R.id.easypicker_task, null);
+        if (bitmap == null)
+            Toast.makeText(imageView.getContext(), R.string.null_bitmap, Toast.LENGTH_SHORT).show();
+        else
+            setImageBitmap(imageView, bitmap);
     }
-}
\ No newline at end of file
+}
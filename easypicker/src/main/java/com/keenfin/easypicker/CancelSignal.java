@@ -0,0 +1,75 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.graphics.BitmapFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+// Stops a running decode: aborts BitmapFactory and fails further reads from the source
+public class CancelSignal {
+    private volatile boolean mCancelled;
+    private BitmapFactory.Options mOptions;
+
+    public void cancel() {
+        BitmapFactory.Options options;
+        synchronized (this) {
+            mCancelled = true;
+            options = mOptions;
+        }
+
+        if (options != null)
+            options.requestCancelDecode();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    synchronized void setOptions(BitmapFactory.Options options) {
+        mOptions = options;
+        if (mCancelled && options != null)
+            options.requestCancelDecode();
+    }
+
+    InputStream wrap(InputStream in) {
+        return new CancellableInputStream(in);
+    }
+
+    private class CancellableInputStream extends FilterInputStream {
+        CancellableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkCancelled();
+            return super.read(buffer, offset, count);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            checkCancelled();
+            return super.skip(count);
+        }
+
+        private void checkCancelled() throws IOException {
+            if (mCancelled)
+                throw new InterruptedIOException("Decode cancelled");
+        }
+    }
+}
@@ -11,10 +11,40 @@ interface Constants {
     int IMAGES_PER_ROW_P = 3;
     int IMAGES_PER_ROW_L = 5;
     int REQUIRED_THUMBNAIL_SIZE = 200;
+    int MEMORY_CACHE_HEAP_DIVIDER = 8;
+    int BITMAP_POOL_HEAP_DIVIDER = 16;
+    int DECODE_BUFFER_SIZE = 32 * 1024;
+    int HEADER_MARK_LIMIT = 128 * 1024;
+    int DECODE_HEAP_DIVIDER = 4;
+    int DISK_CACHE_MAX_SIDE = 512;
+    int DISK_CACHE_QUALITY = 90;
+    long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+    int PREFETCH_LOOKAHEAD_MILLIS = 250;
+    int PREFETCH_MAX_ROWS = 3;
+    int TILE_SIZE = 256;
+    int TILE_CACHE_HEAP_DIVIDER = 8;
+    int TILE_MAX_PIXEL_ZOOM = 2;
+    int TILE_DOUBLE_TAP_ZOOM = 3;
+    int GALLERY_IMAGES_PER_ROW_P = 4;
+    int GALLERY_IMAGES_PER_ROW_L = 7;
+    float GALLERY_CHECKED_ALPHA = 0.6f;
+    int DUPLICATE_FINGERPRINT_CHUNK = 64 * 1024;
+    int DUPLICATE_DECODE_SIZE = 64;
+    int DUPLICATE_HASH_SIDE = 8;
+    int DUPLICATE_HASH_DISTANCE = 5;
+    int DUPLICATE_CACHE_ENTRIES = 1024;
+    int EXPORT_MAX_SIDE = 1920;
+    int EXPORT_QUALITY = 85;
+    int EXPORT_THREADS = 2;
+    int EXPORT_BUFFER_SIZE = 64 * 1024;
 
     String BUNDLE_ATTACHED_IMAGES = "attached_images";
     String BUNDLE_NEW_PHOTO_PATH = "new_photo_path";
     String BUNDLE_CAMERA_REQUEST = "camera_request";
     String BUNDLE_PICK_REQUEST = "pick_request";
+    String BUNDLE_PENDING_IMAGES = "pending_images";
+    String BUNDLE_THUMBNAIL_SIZE = "thumbnail_size";
     String NEW_PHOTOS_SAVE_DIR = "EasyPicker";
+    String DISK_CACHE_DIR = "easypicker_thumbnails";
+    String DUPLICATE_PREFERENCES = "easypicker_hashes";
 }
@@ -0,0 +1,178 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.graphics.Bitmap;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters of source opens and bytes read by BitmapUtil decodes, detailed events go to the listener if one is set.
+// Bytes are counted only while a listener is set, streams are not wrapped otherwise.
+public class DecodeMetrics {
+    public static final int STAGE_BOUNDS = 0;
+    public static final int STAGE_DECODE = 1;
+    public static final int STAGE_ROTATE = 2;
+    public static final int CACHE_MEMORY = 0;
+    public static final int CACHE_DISK = 1;
+
+    private static final AtomicLong sOpens = new AtomicLong();
+    private static final AtomicLong sBytesRead = new AtomicLong();
+    private static final AtomicLong sDecodes = new AtomicLong();
+    private static final AtomicLong sOpenDescriptors = new AtomicLong();
+    private static volatile Listener sListener;
+
+    // Called on decoding threads while the work happens, implementations have to be cheap and thread safe.
+    public interface Listener {
+        // stage is one of STAGE_BOUNDS, STAGE_DECODE and STAGE_ROTATE
+        void onStage(int stage, long nanos);
+
+        void onBytesRead(int bytes);
+
+        // new bitmap memory, bitmaps reused from BitmapPool are not counted
+        void onBitmapAllocated(int bytes);
+
+        // decode hit OutOfMemoryError and was retried with a larger sample size
+        void onOutOfMemoryFallback();
+
+        // cache is CACHE_MEMORY or CACHE_DISK
+        void onCacheLookup(int cache, boolean hit);
+
+        // time a decode task spent queued before a worker took it
+        void onQueueWait(long nanos);
+    }
+
+    /**
+     * Without a listener no clock is read and no event is built, see {@link MetricsRecorder} for a ready one.
+     *
+     * @param listener Listener for all decodes of the process, null detaches.
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    public static long getOpens() {
+        return sOpens.get();
+    }
+
+    // since a listener was set, see class comment
+    public static long getBytesRead() {
+        return sBytesRead.get();
+    }
+
+    public static long getDecodes() {
+        return sDecodes.get();
+    }
+
+    // descriptors opened by the library and not closed yet, should drop back to zero when decoding stops
+    public static long getOpenDescriptors() {
+        return sOpenDescriptors.get();
+    }
+
+    public static float getOpensPerDecode() {
+        long decodes = sDecodes.get();
+        return decodes == 0 ? 0 : 1f * sOpens.get() / decodes;
+    }
+
+    public static float getBytesPerDecode() {
+        long decodes = sDecodes.get();
+        return decodes == 0 ? 0 : 1f * sBytesRead.get() / decodes;
+    }
+
+    public static void reset() {
+        sOpens.set(0);
+        sBytesRead.set(0);
+        sDecodes.set(0);
+    }
+
+    static void onOpen() {
+        sOpens.incrementAndGet();
+    }
+
+    static void onDescriptorOpened() {
+        sOpenDescriptors.incrementAndGet();
+    }
+
+    static void onDescriptorClosed() {
+        sOpenDescriptors.decrementAndGet();
+    }
+
+    static void onDecode() {
+        sDecodes.incrementAndGet();
+    }
+
+    // 0 when nobody listens, stage end is not reported then
+    static long startTimer() {
+        return sListener == null ? 0 : System.nanoTime();
+    }
+
+    static void onStage(int stage, long start) {
+        Listener listener = sListener;
+        if (listener != null && start != 0)
+            listener.onStage(stage, System.nanoTime() - start);
+    }
+
+    static void onQueueWait(long start) {
+        Listener listener = sListener;
+        if (listener != null && start != 0)
+            listener.onQueueWait(System.nanoTime() - start);
+    }
+
+    static void onBitmapAllocated(Bitmap bitmap) {
+        Listener listener = sListener;
+        if (listener != null && bitmap != null)
+            listener.onBitmapAllocated(BitmapCache.getByteCount(bitmap));
+    }
+
+    static void onOutOfMemoryFallback() {
+        Listener listener = sListener;
+        if (listener != null)
+            listener.onOutOfMemoryFallback();
+    }
+
+    static void onCacheLookup(int cache, boolean hit) {
+        Listener listener = sListener;
+        if (listener != null)
+            listener.onCacheLookup(cache, hit);
+    }
+
+    private static void onBytesRead(int bytes) {
+        sBytesRead.addAndGet(bytes);
+        Listener listener = sListener;
+        if (listener != null)
+            listener.onBytesRead(bytes);
+    }
+
+    // stream as is when nobody listens, so reads cost nothing extra
+    static InputStream count(InputStream in) {
+        if (sListener == null)
+            return in;
+
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value >= 0)
+                    onBytesRead(1);
+
+                return value;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int read = super.read(buffer, offset, count);
+                if (read > 0)
+                    onBytesRead(read);
+
+                return read;
+            }
+        };
+    }
+}
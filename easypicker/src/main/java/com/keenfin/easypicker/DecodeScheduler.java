@@ -0,0 +1,117 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs decodes on a dedicated pool instead of the app-wide AsyncTask executor
+public class DecodeScheduler {
+    public static final int PRIORITY_PREFETCH = -1;
+    public static final int PRIORITY_OFFSCREEN = 0;
+    public static final int PRIORITY_VISIBLE = 1;
+    public static final int PRIORITY_PREVIEW = 2;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final int IO_THREADS = 2;
+    private static DecodeScheduler sInstance;
+
+    private final ThreadPoolExecutor mDefaultExecutor;
+    private final ThreadPoolExecutor mIoExecutor;
+    private final Handler mMainHandler;
+    private volatile Executor mExecutor;
+
+    public static synchronized DecodeScheduler getInstance() {
+        if (sInstance == null)
+            sInstance = new DecodeScheduler();
+
+        return sInstance;
+    }
+
+    private DecodeScheduler() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        mDefaultExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                  new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory("EasyPicker decode"));
+        mDefaultExecutor.allowCoreThreadTimeOut(true);
+        mIoExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                             new LinkedBlockingQueue<Runnable>(), new DecodeThreadFactory("EasyPicker io"));
+        mIoExecutor.allowCoreThreadTimeOut(true);
+        mExecutor = mDefaultExecutor;
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Use host app executor for all subsequent decodes. Tasks are {@link Comparable} by priority,
+     * so an executor backed by a {@link PriorityBlockingQueue} keeps the ordering.
+     *
+     * @param executor Executor to run decodes on, null restores the default pool.
+     */
+    public static void setExecutor(Executor executor) {
+        DecodeScheduler scheduler = getInstance();
+        scheduler.mExecutor = executor == null ? scheduler.mDefaultExecutor : executor;
+    }
+
+    // File copies and other plain I/O, kept apart so they do not hold decodes back
+    public Executor getIoExecutor() {
+        return mIoExecutor;
+    }
+
+    public void submit(BitmapWorkerTask task) {
+        mExecutor.execute(task);
+    }
+
+    public void setPriority(BitmapWorkerTask task, int priority) {
+        // only the default pool can be reordered, queued task is moved to its new place
+        if (task == null || task.getPriority() == priority || mExecutor != mDefaultExecutor)
+            return;
+
+        if (mDefaultExecutor.getQueue().remove(task)) {
+            task.setPriority(priority);
+            mDefaultExecutor.execute(task);
+        } else
+            task.setPriority(priority);
+    }
+
+    public void remove(BitmapWorkerTask task) {
+        if (mExecutor == mDefaultExecutor)
+            mDefaultExecutor.getQueue().remove(task);
+    }
+
+    void post(Runnable runnable) {
+        mMainHandler.post(runnable);
+    }
+
+    static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+        private final String mName;
+
+        DecodeThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + " #" + mCount.getAndIncrement());
+        }
+    }
+}
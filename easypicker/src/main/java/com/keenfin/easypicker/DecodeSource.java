@@ -0,0 +1,52 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// One opened image file. Header is kept in a marked buffer so EXIF, bounds and pixels
+// are read from it without reopening; seeking back is the fallback once the mark is lost.
+class DecodeSource {
+    private final FileInputStream mFile;
+    private final CancelSignal mSignal;
+    private BufferedInputStream mStream;
+
+    DecodeSource(FileInputStream file, CancelSignal signal) {
+        mFile = file;
+        mSignal = signal;
+        open();
+    }
+
+    private void open() {
+        mStream = new BufferedInputStream(DecodeMetrics.count(mSignal.wrap(mFile)), Constants.DECODE_BUFFER_SIZE);
+        mStream.mark(Constants.HEADER_MARK_LIMIT);
+    }
+
+    // stream positioned at the image start, keep header marked for the next pass if needed
+    InputStream rewind(boolean keepMark) throws IOException {
+        try {
+            mStream.reset();
+        } catch (IOException e) {
+            // header pass went past the mark limit
+            mFile.getChannel().position(0);
+            open();
+        }
+
+        if (keepMark)
+            mStream.mark(Constants.HEADER_MARK_LIMIT);
+
+        return mStream;
+    }
+
+    InputStream getStream() {
+        return mStream;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Encoded thumbnails in the app cache dir, evicted by last access time
+public class DiskCache {
+    private static DiskCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private long mSize = -1;
+
+    public static synchronized DiskCache getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new DiskCache(new File(context.getApplicationContext().getCacheDir(), Constants.DISK_CACHE_DIR),
+                                      Constants.DISK_CACHE_SIZE);
+
+        return sInstance;
+    }
+
+    private DiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    public static boolean isCacheable(int size) {
+        return size > 0 && size <= Constants.DISK_CACHE_MAX_SIDE;
+    }
+
+    // entry is the EXIF orientation byte followed by the encoded pixels as stored in the source
+    public OrientedBitmap get(String key) {
+        if (key == null)
+            return null;
+
+        File file = new File(mDirectory, key);
+        if (!file.exists()) {
+            DecodeMetrics.onCacheLookup(DecodeMetrics.CACHE_DISK, false);
+            return null;
+        }
+
+        Bitmap bitmap = null;
+        int orientation = -1;
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            orientation = fis.read();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            bitmap = BitmapFactory.decodeStream(fis, null, options);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (fis != null)
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+        }
+
+        if (bitmap == null || orientation < 0) {
+            remove(file);
+            DecodeMetrics.onCacheLookup(DecodeMetrics.CACHE_DISK, false);
+            return null;
+        }
+
+        DecodeMetrics.onCacheLookup(DecodeMetrics.CACHE_DISK, true);
+        file.setLastModified(System.currentTimeMillis());
+        return new OrientedBitmap(bitmap, orientation);
+    }
+
+    public synchronized void put(String key, OrientedBitmap orientedBitmap) {
+        if (key == null || orientedBitmap == null || orientedBitmap.getBitmap().isRecycled())
+            return;
+
+        Bitmap bitmap = orientedBitmap.getBitmap();
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs())
+            return;
+
+        File file = new File(mDirectory, key);
+        File temp = new File(mDirectory, key + ".tmp");
+        FileOutputStream fos = null;
+        boolean written = false;
+        try {
+            fos = new FileOutputStream(temp);
+            fos.write(orientedBitmap.getOrientation());
+            Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            written = bitmap.compress(format, Constants.DISK_CACHE_QUALITY, fos);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (fos != null)
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    written = false;
+                }
+        }
+
+        if (!written) {
+            temp.delete();
+            return;
+        }
+
+        ensureSize();
+        if (file.exists())
+            remove(file);
+
+        if (temp.renameTo(file)) {
+            mSize += file.length();
+            trim();
+        } else
+            temp.delete();
+    }
+
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+
+        mSize = 0;
+    }
+
+    private synchronized void remove(File file) {
+        long length = file.length();
+        if (file.delete() && mSize >= 0)
+            mSize -= length;
+    }
+
+    private void ensureSize() {
+        if (mSize >= 0)
+            return;
+
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                mSize += file.length();
+    }
+
+    private void trim() {
+        if (mSize <= mMaxBytes)
+            return;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+
+        final long[] accessed = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            accessed[i] = files[i].lastModified();
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return accessed[a] < accessed[b] ? -1 : (accessed[a] == accessed[b] ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < order.length && mSize > mMaxBytes; i++)
+            remove(files[order[i]]);
+    }
+
+    public static String getKey(String path, int size) {
+        File file = new File(path);
+        if (!file.exists())
+            return null;
+
+        return getKey(path, file.length(), file.lastModified(), size);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public static String getKey(String uri, FileDescriptor fd, int size) {
+        try {
+            StructStat stat = Os.fstat(fd);
+            return getKey(uri, stat.st_size, stat.st_mtime, size);
+        } catch (ErrnoException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static String getKey(String pathOrUri, long length, long modified, int size) {
+        return CacheKeys.getKey(pathOrUri, length, modified, size);
+    }
+}
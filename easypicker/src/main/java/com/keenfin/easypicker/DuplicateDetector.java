@@ -0,0 +1,308 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tells whether two attachments are the same image: content fingerprint catches one file behind different
+// paths or uris, perceptual hash of the thumbnail catches re-encoded copies. Results are kept by file identity.
+public class DuplicateDetector {
+    private static final char STAMP_SEPARATOR = '@';
+    private static DuplicateDetector sInstance;
+
+    private final Context mContext;
+    private SharedPreferences mPreferences;
+    // stored signatures by key, least recently used first; preferences are read only once to fill it
+    private LinkedHashMap<String, String> mIndex;
+
+    public interface Callback {
+        // main thread, signature is null when the image can not be read
+        void onSignature(Signature signature);
+    }
+
+    public static synchronized DuplicateDetector getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new DuplicateDetector(context.getApplicationContext());
+
+        return sInstance;
+    }
+
+    private DuplicateDetector(Context context) {
+        mContext = context;
+    }
+
+    // Computed on the I/O pool, hashes seen before are read from the store without touching the image.
+    public void getSignature(final String pathOrUri, final int thumbnailSize, final Callback callback) {
+        DecodeScheduler.getInstance().getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Signature signature = null;
+                try {
+                    signature = getSignature(pathOrUri, thumbnailSize);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+
+                final Signature result = signature;
+                DecodeScheduler.getInstance().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSignature(result);
+                    }
+                });
+            }
+        });
+    }
+
+    // Blocking variant, do not call it on the main thread.
+    public Signature getSignature(String pathOrUri, int thumbnailSize) {
+        boolean isUri = BitmapUtil.isUri(pathOrUri);
+        ParcelFileDescriptor pfd = null;
+        FileInputStream fis = null;
+        String key;
+        try {
+            if (isUri) {
+                pfd = BitmapUtil.openFileDescriptor(mContext, Uri.parse(pathOrUri));
+                if (pfd == null)
+                    return null;
+
+                fis = new FileInputStream(pfd.getFileDescriptor());
+                key = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? DiskCache.getKey(pathOrUri, pfd.getFileDescriptor(), 0) : null;
+            } else {
+                fis = new FileInputStream(pathOrUri);
+                key = DiskCache.getKey(pathOrUri, 0);
+            }
+
+            Signature signature = key == null ? null : load(key);
+            if (signature != null)
+                return signature;
+
+            String fingerprint = getFingerprint(fis.getChannel());
+            if (fingerprint == null)
+                return null;
+
+            OrientedBitmap thumbnail = BitmapCache.getInstance().acquire(new BitmapCache.Key(pathOrUri, thumbnailSize));
+            boolean isCached = thumbnail != null;
+            // fingerprint reads are positional, so the stream opened for it is decoded from the start
+            if (!isCached)
+                thumbnail = BitmapUtil.decodeBitmap(fis.getFD(), Constants.DUPLICATE_DECODE_SIZE, new CancelSignal());
+
+            signature = new Signature(fingerprint, thumbnail == null ? null : getPerceptualHash(thumbnail));
+            if (thumbnail != null) {
+                if (isCached)
+                    BitmapPool.getInstance().release(thumbnail.getBitmap());
+                else
+                    BitmapPool.getInstance().put(thumbnail.getBitmap());
+            }
+
+            if (key != null)
+                store(key, signature);
+
+            return signature;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (fis != null)
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+            BitmapUtil.closeFileDescriptor(pfd);
+        }
+    }
+
+    private synchronized Signature load(String key) {
+        return Signature.parse(getIndex().get(key));
+    }
+
+    // only the new entry and the trimmed ones are edited, least recently used hashes go first once full
+    private synchronized void store(String key, Signature signature) {
+        Map<String, String> index = getIndex();
+        String value = signature.toString() + STAMP_SEPARATOR + System.currentTimeMillis();
+        SharedPreferences.Editor editor = mPreferences.edit();
+        index.put(key, value);
+        editor.putString(key, value);
+
+        Iterator<String> eldest = index.keySet().iterator();
+        while (index.size() > Constants.DUPLICATE_CACHE_ENTRIES) {
+            editor.remove(eldest.next());
+            eldest.remove();
+        }
+
+        editor.apply();
+    }
+
+    // entries of earlier sessions are ordered by the time they were stored
+    private Map<String, String> getIndex() {
+        if (mIndex != null)
+            return mIndex;
+
+        mPreferences = mContext.getSharedPreferences(Constants.DUPLICATE_PREFERENCES, Context.MODE_PRIVATE);
+        List<Map.Entry<String, ?>> entries = new ArrayList<Map.Entry<String, ?>>(mPreferences.getAll().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, ?>>() {
+            @Override
+            public int compare(Map.Entry<String, ?> first, Map.Entry<String, ?> second) {
+                long firstStamp = getStamp(first.getValue()), secondStamp = getStamp(second.getValue());
+                return firstStamp < secondStamp ? -1 : (firstStamp == secondStamp ? 0 : 1);
+            }
+        });
+
+        mIndex = new LinkedHashMap<>(Constants.DUPLICATE_CACHE_ENTRIES * 4 / 3 + 1, 0.75f, true);
+        for (Map.Entry<String, ?> entry : entries)
+            if (entry.getValue() instanceof String)
+                mIndex.put(entry.getKey(), (String) entry.getValue());
+
+        return mIndex;
+    }
+
+    // entries written before stamps were added count as the oldest
+    private static long getStamp(Object value) {
+        if (!(value instanceof String))
+            return 0;
+
+        String string = (String) value;
+        int index = string.lastIndexOf(STAMP_SEPARATOR);
+        try {
+            return index < 0 ? 0 : Long.parseLong(string.substring(index + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // MD5 of the size, head and tail, read with positional reads so the descriptor offset stays intact
+    private static String getFingerprint(FileChannel channel) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.DUPLICATE_FINGERPRINT_CHUNK);
+        digest.update(Long.toString(size).getBytes("UTF-8"));
+        update(digest, channel, buffer, 0);
+        if (size > Constants.DUPLICATE_FINGERPRINT_CHUNK * 2)
+            update(digest, channel, buffer, size - Constants.DUPLICATE_FINGERPRINT_CHUNK);
+        else if (size > Constants.DUPLICATE_FINGERPRINT_CHUNK)
+            update(digest, channel, buffer, Constants.DUPLICATE_FINGERPRINT_CHUNK);
+
+        return CacheKeys.toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0)
+            position += read;
+
+        digest.update(buffer.array(), 0, buffer.position());
+    }
+
+    // dHash: thumbnail squeezed to 9x8 gray, one bit per horizontal brightness step. Orientation is applied
+    // while squeezing, decoders differ in whether they rotate pixels and a rotated copy must hash the same.
+    static long getPerceptualHash(OrientedBitmap thumbnail) {
+        Bitmap bitmap = thumbnail.getBitmap();
+        int width = Constants.DUPLICATE_HASH_SIDE + 1, height = Constants.DUPLICATE_HASH_SIDE;
+        boolean swap = BitmapUtil.isSidesSwapped(thumbnail.getOrientation());
+        Matrix matrix = BitmapUtil.getOrientationMatrix(thumbnail.getOrientation(), bitmap.getWidth(), bitmap.getHeight());
+        if (matrix == null)
+            matrix = new Matrix();
+
+        matrix.postScale(1f * width / (swap ? bitmap.getHeight() : bitmap.getWidth()),
+                1f * height / (swap ? bitmap.getWidth() : bitmap.getHeight()));
+        Bitmap small = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(small);
+        canvas.drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        canvas.setBitmap(null);
+        int[] pixels = new int[width * height];
+        small.getPixels(pixels, 0, width, 0, 0, width, height);
+        small.recycle();
+
+        long hash = 0;
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width - 1; x++) {
+                hash <<= 1;
+                if (getLuminance(pixels[y * width + x]) > getLuminance(pixels[y * width + x + 1]))
+                    hash |= 1;
+            }
+
+        return hash;
+    }
+
+    private static int getLuminance(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+    }
+
+    public static class Signature {
+        private final String mFingerprint;
+        private final Long mHash;
+
+        Signature(String fingerprint, Long hash) {
+            mFingerprint = fingerprint;
+            mHash = hash;
+        }
+
+        static Signature parse(String value) {
+            if (value == null)
+                return null;
+
+            int stamp = value.indexOf(STAMP_SEPARATOR);
+            String[] parts = (stamp < 0 ? value : value.substring(0, stamp)).split(":");
+            try {
+                return new Signature(parts[0], parts.length > 1 ? new BigInteger(parts[1], 16).longValue() : null);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        public boolean isSameContent(Signature other) {
+            return other != null && mFingerprint.equals(other.mFingerprint);
+        }
+
+        // hashes differing in a few bits belong to the same picture saved with other size or quality
+        public boolean isSimilar(Signature other) {
+            return isSameContent(other) || other != null && mHash != null && other.mHash != null
+                    && Long.bitCount(mHash ^ other.mHash) <= Constants.DUPLICATE_HASH_DISTANCE;
+        }
+
+        @Override
+        public String toString() {
+            return mHash == null ? mFingerprint : mFingerprint + ":" + Long.toHexString(mHash);
+        }
+    }
+}
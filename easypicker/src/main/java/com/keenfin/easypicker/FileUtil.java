@@ -22,6 +22,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
@@ -29,21 +30,48 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.support.v4.content.CursorLoader;
+import android.support.v4.util.LruCache;
 import android.text.TextUtils;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
 
 // https://gist.github.com/chenenyu/3ee568fa326e2f0a9ff6674ec76eb785
 // https://raw.githubusercontent.com/coltoscosmin/FileUtils/master/FileUtils.java
 public class FileUtil {
     public static final String DOCUMENTS_DIR = "documents";
+    private static final int REAL_PATH_CACHE_SIZE = 64;
+    // repeated picks of the same document skip the queries and the cache copy
+    private static final LruCache<String, RealPath> sRealPaths = new LruCache<>(REAL_PATH_CACHE_SIZE);
 
+    public interface CopyCallback {
+        void onProgress(long copied, long total);
+
+        /**
+         * @param file Copied file, or null if copy failed or was cancelled.
+         */
+        void onComplete(File file);
+    }
+
+    /**
+     * May query providers and copy the whole document, so call it off the main thread.
+     */
     public static String getRealPath(Context context, Uri fileUri) {
+        String key = fileUri.toString();
+        // provider may hand the same uri to another document, size and modification time tell it
+        String stamp = getStamp(context, fileUri);
+        RealPath cached = sRealPaths.get(key);
+        if (cached != null && new File(cached.mPath).exists() && TextUtils.equals(cached.mStamp, stamp)) {
+            return cached.mPath;
+        }
+
         String realPath;
+
         // SDK >= 11 && SDK < 19
         if (Build.VERSION.SDK_INT < 19) {
             realPath = getRealPathFromURI_API11to18(context, fileUri);
@@ -52,9 +80,51 @@ public class FileUtil {
         else {
             realPath = getRealPathFromURI_API19(context, fileUri);
         }
+
+        if (realPath != null) {
+            sRealPaths.put(key, new RealPath(realPath, stamp));
+        } else {
+            sRealPaths.remove(key);
+        }
         return realPath;
     }
 
+    // null when the provider does not tell, then only existence of the mapped file is checked
+    @Nullable
+    private static String getStamp(Context context, Uri uri) {
+        if (!"content".equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+
+        boolean isDocument = Build.VERSION.SDK_INT >= 19 && DocumentsContract.isDocumentUri(context, uri);
+        String[] projection = isDocument ? new String[]{OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED}
+                                         : new String[]{OpenableColumns.SIZE};
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri, projection, null, null, null);
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+
+            return isDocument ? cursor.getLong(0) + "/" + cursor.getLong(1) : String.valueOf(cursor.getLong(0));
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    // failed copy leaves nothing behind, mappings to it are dropped
+    private static void forgetRealPath(File file) {
+        String path = file.getAbsolutePath();
+        for (Map.Entry<String, RealPath> entry : sRealPaths.snapshot().entrySet()) {
+            if (path.equals(entry.getValue().mPath)) {
+                sRealPaths.remove(entry.getKey());
+            }
+        }
+    }
+
     public static String getRealPathFromURI_API11to18(Context context, Uri contentUri) {
         String[] proj = {MediaStore.MediaColumns.DATA};
         String result = null;
@@ -122,13 +192,11 @@ public class FileUtil {
                     String fileName = getFileName(context, uri);
                     File cacheDir = getDocumentCacheDir(context);
                     File file = generateFileName(fileName, cacheDir);
-                    String destinationPath = null;
-                    if (file != null) {
-                        destinationPath = file.getAbsolutePath();
-                        saveFileFromUri(context, uri, destinationPath);
+                    if (file != null && saveFileFromUri(context, uri, file, null)) {
+                        return file.getAbsolutePath();
                     }
 
-                    return destinationPath;
+                    return null;
                 }
             }
             // MediaProvider
@@ -270,11 +338,7 @@ public class FileUtil {
     }
 
     public static String getName(String filename) {
-        if (filename == null) {
-            return null;
-        }
-        int index = filename.lastIndexOf('/');
-        return filename.substring(index + 1);
+        return FileNames.getName(filename);
     }
 
     public static File getDocumentCacheDir(@NonNull Context context) {
@@ -288,62 +352,117 @@ public class FileUtil {
 
     @Nullable
     public static File generateFileName(@Nullable String name, File directory) {
-        if (name == null) {
-            return null;
-        }
-
-        File file = new File(directory, name);
+        return FileNames.generateFileName(name, directory);
+    }
 
-        if (file.exists()) {
-            String fileName = name;
-            String extension = "";
-            int dotIndex = name.lastIndexOf('.');
-            if (dotIndex > 0) {
-                fileName = name.substring(0, dotIndex);
-                extension = name.substring(dotIndex);
-            }
+    /**
+     * Copy document in background. Callback is called on the main thread.
+     *
+     * @param signal   (Optional) Cancels the copy, partial file is deleted.
+     * @param callback (Optional) Progress and result.
+     */
+    public static void saveFileFromUri(Context context, final Uri uri, final File destination,
+                                       final CancelSignal signal, final CopyCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        DecodeScheduler.getInstance().getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean saved = saveFileFromUri(appContext, uri, destination, new FileCopier.Listener() {
+                    @Override
+                    public void onProgress(final long copied, final long total) {
+                        if (callback == null) {
+                            return;
+                        }
+
+                        DecodeScheduler.getInstance().post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onProgress(copied, total);
+                            }
+                        });
+                    }
 
-            int index = 0;
+                    @Override
+                    public boolean isCancelled() {
+                        return signal != null && signal.isCancelled();
+                    }
+                });
 
-            while (file.exists()) {
-                index++;
-                name = fileName + '(' + index + ')' + extension;
-                file = new File(directory, name);
-            }
-        }
+                if (callback == null) {
+                    return;
+                }
 
-        try {
-            if (!file.createNewFile()) {
-                return null;
+                final File result = saved ? destination : null;
+                DecodeScheduler.getInstance().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onComplete(result);
+                    }
+                });
             }
-        } catch (IOException e) {
-            return null;
-        }
-
-        return file;
+        });
     }
 
-    private static void saveFileFromUri(Context context, Uri uri, String destinationPath) {
+    /**
+     * Copy document on the calling thread, which should not be the main one. Regular files are
+     * transferred channel to channel, pipes and other streams go through a large buffer.
+     *
+     * @param listener (Optional) Progress and cancellation.
+     * @return Whether the whole document was copied. Partial file is deleted otherwise.
+     */
+    public static boolean saveFileFromUri(Context context, Uri uri, File destination, FileCopier.Listener listener) {
+        ParcelFileDescriptor pfd = null;
         InputStream is = null;
-        BufferedOutputStream bos = null;
+        FileOutputStream fos = null;
+        boolean saved = false;
         try {
-            is = context.getContentResolver().openInputStream(uri);
-            bos = new BufferedOutputStream(new FileOutputStream(destinationPath, false));
-            byte[] buf = new byte[1024];
-            is.read(buf);
-            do {
-                bos.write(buf);
-            } while (is.read(buf) != -1);
-        } catch (IOException e) {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                return false;
+            }
+
+            fos = new FileOutputStream(destination, false);
+            long size = pfd.getStatSize();
+            if (size >= 0) {
+                FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
+                saved = FileCopier.copy(fis.getChannel(), fos.getChannel(), size, listener) == size;
+            } else {
+                is = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+                pfd = null;
+                FileCopier.copy(is, fos, FileCopier.UNKNOWN_SIZE, listener);
+                saved = true;
+            }
+        } catch (InterruptedIOException e) {
+            // cancelled
+        } catch (IOException | SecurityException e) {
             e.printStackTrace();
         } finally {
-            try {
-                if (is != null) is.close();
-                if (bos != null) bos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            BitmapUtil.close(is);
+            if (pfd != null) {
+                try {
+                    pfd.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // unflushed output means the copy is not complete
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    saved = false;
+                }
+            }
+
+            if (!saved) {
+                destination.delete();
+                forgetRealPath(destination);
             }
         }
+
+        return saved;
     }
 
     /**
@@ -377,4 +496,14 @@ public class FileUtil {
     private static boolean isGooglePhotosUri(Uri uri) {
         return "com.google.android.apps.photos.content".equals(uri.getAuthority());
     }
+
+    private static class RealPath {
+        private final String mPath;
+        private final String mStamp;
+
+        RealPath(String path, String stamp) {
+            mPath = path;
+            mStamp = stamp;
+        }
+    }
 }
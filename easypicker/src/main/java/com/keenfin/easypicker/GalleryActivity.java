@@ -0,0 +1,223 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// Picks images straight from MediaStore, result is the same as ACTION_GET_CONTENT with EXTRA_ALLOW_MULTIPLE
+public class GalleryActivity extends AppCompatActivity implements MediaStorePager.Listener, PhotoViewHolder.IViewHolderClick {
+    public static final String EXTRA_MAX_PHOTOS = "com.keenfin.easypicker.extra.MAX_PHOTOS";
+
+    private final LinkedHashSet<Uri> mSelected = new LinkedHashSet<>();
+    private MediaStorePager mPager;
+    private GalleryAdapter mAdapter;
+    private int mMaxPhotos, mSide, mAccentColor;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_gallery);
+        setTitle(R.string.photo_pick);
+
+        mMaxPhotos = getIntent().getIntExtra(EXTRA_MAX_PHOTOS, -1);
+        if (savedInstanceState != null) {
+            List<Uri> selected = savedInstanceState.getParcelableArrayList(Constants.BUNDLE_ATTACHED_IMAGES);
+            if (selected != null)
+                mSelected.addAll(selected);
+        }
+
+        TypedArray styleable = obtainStyledAttributes(new int[]{R.attr.colorAccent});
+        mAccentColor = styleable.getColor(0, ContextCompat.getColor(this, R.color.accent));
+        styleable.recycle();
+
+        boolean isLandscape = getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
+        int columns = isLandscape ? Constants.GALLERY_IMAGES_PER_ROW_L : Constants.GALLERY_IMAGES_PER_ROW_P;
+        mSide = getResources().getDisplayMetrics().widthPixels / columns;
+
+        mAdapter = new GalleryAdapter();
+        RecyclerView gallery = findViewById(R.id.rv_gallery);
+        gallery.setLayoutManager(new GridLayoutManager(this, columns));
+        gallery.setHasFixedSize(true);
+        gallery.setAdapter(mAdapter);
+
+        mPager = new MediaStorePager(getContentResolver(), this);
+        mPager.open();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PhotoViewHolder.releasePhotos((RecyclerView) findViewById(R.id.rv_gallery));
+        mPager.close();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelableArrayList(Constants.BUNDLE_ATTACHED_IMAGES, new ArrayList<>(mSelected));
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        MenuItem attach = menu.add(Menu.NONE, R.id.easypicker_attach, Menu.NONE, R.string.photo_attach);
+        attach.setShowAsAction(MenuItem.SHOW_AS_ACTION_ALWAYS);
+        attach.setEnabled(!mSelected.isEmpty());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.easypicker_attach) {
+            finishWithResult();
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void onCountLoaded(int count) {
+        if (count < 0) {
+            Toast.makeText(this, R.string.hw_error, Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+
+        mAdapter.setCount(count);
+    }
+
+    @Override
+    public void onPageLoaded(int firstPosition, int count) {
+        mAdapter.notifyItemRangeChanged(firstPosition, count);
+    }
+
+    @Override
+    public void onItemClick(View caller, int position) {
+        Uri uri = position < 0 ? null : mPager.getUri(position);
+        if (uri == null)
+            return;
+
+        if (mSelected.remove(uri)) {
+            mAdapter.notifyItemChanged(position);
+            supportInvalidateOptionsMenu();
+            return;
+        }
+
+        if (mMaxPhotos > -1 && mSelected.size() >= mMaxPhotos) {
+            Toast.makeText(this, String.format(getString(R.string.max_photos), mMaxPhotos), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        mSelected.add(uri);
+        if (mMaxPhotos == 1) {
+            finishWithResult();
+            return;
+        }
+
+        mAdapter.notifyItemChanged(position);
+        supportInvalidateOptionsMenu();
+    }
+
+    private void finishWithResult() {
+        if (mSelected.isEmpty())
+            return;
+
+        List<Uri> uris = new ArrayList<>(mSelected);
+        Intent data = new Intent();
+        data.setData(uris.get(0));
+        if (uris.size() > 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            ClipData clip = ClipData.newRawUri(null, uris.get(0));
+            for (int i = 1; i < uris.size(); i++)
+                clip.addItem(new ClipData.Item(uris.get(i)));
+
+            data.setClipData(clip);
+        }
+
+        data.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        setResult(RESULT_OK, data);
+        finish();
+    }
+
+    private class GalleryAdapter extends RecyclerView.Adapter<PhotoViewHolder> {
+        private int mCount;
+
+        void setCount(int count) {
+            mCount = count;
+            notifyDataSetChanged();
+        }
+
+        @NonNull
+        @Override
+        public PhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.photo_item, parent, false);
+            PhotoViewHolder holder = new PhotoViewHolder(view);
+            holder.setOnClickListener(GalleryActivity.this);
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
+            // pages on both sides are requested before scrolling reaches them
+            mPager.prefetch(Math.min(mCount - 1, position + MediaStorePager.PAGE_SIZE / 2));
+            mPager.prefetch(Math.max(0, position - MediaStorePager.PAGE_SIZE / 2));
+
+            Uri uri = mPager.getUri(position);
+            if (uri == null)
+                holder.setIcon(null);
+            else
+                holder.loadPhoto(GalleryActivity.this, uri.toString(), mSide);
+
+            boolean checked = uri != null && mSelected.contains(uri);
+            holder.adjustControl(mSide, mAccentColor, false, false, true);
+            holder.setChecked(checked);
+            holder.itemView.setBackgroundColor(checked ? mAccentColor : Color.TRANSPARENT);
+        }
+
+        @Override
+        public void onViewAttachedToWindow(@NonNull PhotoViewHolder holder) {
+            holder.onAttached();
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(@NonNull PhotoViewHolder holder) {
+            holder.onDetached();
+        }
+
+        @Override
+        public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+            holder.onRecycled();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mCount;
+        }
+    }
+}
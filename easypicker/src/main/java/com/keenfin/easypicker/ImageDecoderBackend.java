@@ -0,0 +1,143 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.RequiresApi;
+import android.util.Size;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+// Decodes straight to the target size, EXIF orientation is applied by the decoder itself
+@RequiresApi(api = Build.VERSION_CODES.P)
+class ImageDecoderBackend {
+    static Bitmap getBitmap(String path, int requiredSize, CancelSignal signal) {
+        return decode(ImageDecoder.createSource(new File(path)), requiredSize, signal);
+    }
+
+    static Bitmap getBitmap(Context context, Uri uri, int requiredSize, CancelSignal signal) {
+        return decode(ImageDecoder.createSource(context.getContentResolver(), uri), requiredSize, signal);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    static Bitmap getBitmap(FileDescriptor fd, int requiredSize, CancelSignal signal) {
+        return decode(createSource(fd), requiredSize, signal);
+    }
+
+    // Rest of a decode BitmapUtil has already opened and counted, after its EXIF thumbnail did not fit.
+    // Q reads the open descriptor from the start, P has no descriptor source and opens the path again.
+    static Bitmap continueDecode(FileDescriptor fd, String path, int requiredSize, CancelSignal signal) {
+        if (signal.isCancelled())
+            return null;
+
+        ImageDecoder.Source source;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            source = createSource(fd);
+        else {
+            source = ImageDecoder.createSource(new File(path));
+            DecodeMetrics.onOpen();
+        }
+
+        return decodeSource(source, requiredSize, signal);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private static ImageDecoder.Source createSource(final FileDescriptor fd) {
+        // decoder closes what it gets, so it reads from a duplicate and the caller keeps its descriptor
+        return ImageDecoder.createSource(new Callable<AssetFileDescriptor>() {
+            @Override
+            public AssetFileDescriptor call() throws IOException {
+                ParcelFileDescriptor pfd = ParcelFileDescriptor.dup(fd);
+                return new AssetFileDescriptor(pfd, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+            }
+        });
+    }
+
+    private static Bitmap decode(ImageDecoder.Source source, int requiredSize, CancelSignal signal) {
+        if (signal.isCancelled())
+            return null;
+
+        DecodeMetrics.onOpen();
+        DecodeMetrics.onDecode();
+        return decodeSource(source, requiredSize, signal);
+    }
+
+    private static Bitmap decodeSource(ImageDecoder.Source source, int requiredSize, CancelSignal signal) {
+        // bounds are read inside the same call, the whole of it counts as decode
+        long start = DecodeMetrics.startTimer();
+        try {
+            return onDecoded(ImageDecoder.decodeBitmap(source, new TargetSizeListener(requiredSize, 1, signal)), start);
+        } catch (OutOfMemoryError oom) {
+            oom.printStackTrace();
+            DecodeMetrics.onOutOfMemoryFallback();
+
+            try {
+                return onDecoded(ImageDecoder.decodeBitmap(source, new TargetSizeListener(requiredSize, 4, signal)), start);
+            } catch (OutOfMemoryError | IOException | CancellationException e) {
+                e.printStackTrace();
+            }
+        } catch (CancellationException ignored) {
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private static Bitmap onDecoded(Bitmap bitmap, long start) {
+        DecodeMetrics.onStage(DecodeMetrics.STAGE_DECODE, start);
+        DecodeMetrics.onBitmapAllocated(bitmap);
+        return bitmap;
+    }
+
+    private static class TargetSizeListener implements ImageDecoder.OnHeaderDecodedListener {
+        private final int mRequiredSize;
+        private final int mDivider;
+        private final CancelSignal mSignal;
+
+        TargetSizeListener(int requiredSize, int divider, CancelSignal signal) {
+            mRequiredSize = requiredSize;
+            mDivider = divider;
+            mSignal = signal;
+        }
+
+        @Override
+        public void onHeaderDecoded(@NonNull ImageDecoder decoder, @NonNull ImageDecoder.ImageInfo info, @NonNull ImageDecoder.Source source) {
+            if (mSignal.isCancelled())
+                throw new CancellationException();
+
+            // same fit as BitmapUtil.calculateSampleSize, smaller side covers the required size, but exactly
+            Size size = info.getSize();
+            int minSide = Math.min(size.getWidth(), size.getHeight());
+            float scale = minSide > mRequiredSize ? 1f * mRequiredSize / minSide : 1f;
+            scale /= mDivider;
+
+            int width = Math.max(1, Math.round(size.getWidth() * scale));
+            int height = Math.max(1, Math.round(size.getHeight() * scale));
+            decoder.setTargetSize(width, height);
+            // software and mutable, so results can go to the disk cache and BitmapPool
+            decoder.setMutableRequired(true);
+
+            Runtime runtime = Runtime.getRuntime();
+            long available = (runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory()) / Constants.DECODE_HEAP_DIVIDER;
+            if ((long) width * height * 4 > available)
+                decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+        }
+    }
+}
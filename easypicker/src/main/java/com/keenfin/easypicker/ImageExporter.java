@@ -0,0 +1,271 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Upload-ready copies of attachments: downsampled decode, physical rotation and recompression.
+// All exporters share one pool and every worker holds one decoded image at a time, so peak memory
+// grows neither with the number of images nor with exports running at once.
+public class ImageExporter {
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static ThreadPoolExecutor sExecutor;
+    // set on pool workers, blocking exports from them run in place instead of waiting for a free worker
+    private static final ThreadLocal<Boolean> sIsWorker = new ThreadLocal<>();
+
+    private final Context mContext;
+    private final File mDirectory;
+    private int mMaxSide = Constants.EXPORT_MAX_SIDE;
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private int mQuality = Constants.EXPORT_QUALITY;
+
+    public interface Listener {
+        // main thread, in order of completion; file is null if the image could not be exported
+        void onExported(int position, String pathOrUri, File file);
+
+        void onFinished();
+    }
+
+    public ImageExporter(Context context, File directory) {
+        mContext = context.getApplicationContext();
+        mDirectory = directory;
+    }
+
+    // Longer side of exported images, smaller ones keep their size.
+    public void setMaxSide(int maxSide) {
+        mMaxSide = maxSide;
+    }
+
+    public void setFormat(Bitmap.CompressFormat format) {
+        mFormat = format;
+    }
+
+    public void setQuality(int quality) {
+        mQuality = quality;
+    }
+
+    // Workers of the pool shared by all exporters, queued images wait for a free one.
+    public static synchronized void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        ThreadPoolExecutor executor = getExecutor();
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            final ThreadFactory factory = new DecodeScheduler.DecodeThreadFactory("EasyPicker export");
+            sExecutor = new ThreadPoolExecutor(Constants.EXPORT_THREADS, Constants.EXPORT_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return factory.newThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            sIsWorker.set(true);
+                            runnable.run();
+                        }
+                    });
+                }
+            });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        return sExecutor;
+    }
+
+    /**
+     * Export in background, for example {@link PhotoPicker#getImagesPathOrUri()}.
+     *
+     * @param signal   (Optional) Cancels the export, images not done yet are reported with null file.
+     * @param listener Results as soon as each image is written.
+     */
+    public void export(List<String> imagesPathOrUri, CancelSignal signal, final Listener listener) {
+        final List<String> images = new ArrayList<>(imagesPathOrUri);
+        final CancelSignal cancel = signal == null ? new CancelSignal() : signal;
+        final Options options = new Options(mMaxSide, mFormat, mQuality);
+        final AtomicInteger remaining = new AtomicInteger(images.size());
+        if (images.isEmpty()) {
+            DecodeScheduler.getInstance().post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onFinished();
+                }
+            });
+            return;
+        }
+
+        ThreadPoolExecutor executor = getExecutor();
+        for (int i = 0; i < images.size(); i++) {
+            final int position = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    File file = null;
+                    try {
+                        file = cancel.isCancelled() ? null : export(images.get(position), options, cancel);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+
+                    final File result = file;
+                    final boolean isLast = remaining.decrementAndGet() == 0;
+                    DecodeScheduler.getInstance().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExported(position, images.get(position), result);
+                            if (isLast)
+                                listener.onFinished();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    // Blocking variant, do not call it on the main thread. Runs on the shared pool as well, or in place
+    // when called from one of its workers, waiting there could take the last free worker.
+    public File export(final String pathOrUri, CancelSignal signal) {
+        final Options options = new Options(mMaxSide, mFormat, mQuality);
+        final CancelSignal cancel = signal == null ? new CancelSignal() : signal;
+        if (sIsWorker.get() != null)
+            return cancel.isCancelled() ? null : export(pathOrUri, options, cancel);
+
+        Future<File> future = getExecutor().submit(new Callable<File>() {
+            @Override
+            public File call() {
+                return cancel.isCancelled() ? null : export(pathOrUri, options, cancel);
+            }
+        });
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            cancel.cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private File export(String pathOrUri, Options options, CancelSignal signal) {
+        boolean isUri = BitmapUtil.isUri(pathOrUri);
+        OrientedBitmap decoded = isUri ? BitmapUtil.decodeBitmap(mContext, Uri.parse(pathOrUri), options.mMaxSide, signal)
+                                       : BitmapUtil.decodeBitmap(pathOrUri, options.mMaxSide, signal);
+        if (decoded == null)
+            return null;
+
+        // scaled before rotation, so the rotated copy is already small
+        Bitmap bitmap = new OrientedBitmap(scale(decoded.getBitmap(), options.mMaxSide), decoded.getOrientation()).toRotatedBitmap();
+        File file = signal.isCancelled() ? null : createFile(pathOrUri, isUri, options.mFormat);
+        boolean written = false;
+        OutputStream os = null;
+        try {
+            if (file != null) {
+                os = new BufferedOutputStream(new FileOutputStream(file), Constants.EXPORT_BUFFER_SIZE);
+                written = bitmap.compress(options.mFormat, options.mQuality, os);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (os != null)
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    written = false;
+                }
+
+            BitmapPool.getInstance().put(bitmap);
+        }
+
+        if (file != null && (!written || signal.isCancelled())) {
+            file.delete();
+            return null;
+        }
+
+        return file;
+    }
+
+    // sampled decode lands between the required size and its double, exact size is reached by filtering
+    private static Bitmap scale(Bitmap bitmap, int maxSide) {
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longSide <= maxSide)
+            return bitmap;
+
+        float scale = 1f * maxSide / longSide;
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        try {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            if (scaled != bitmap)
+                BitmapPool.getInstance().put(bitmap);
+
+            return scaled;
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return bitmap;
+        }
+    }
+
+    // source name with the extension of the export format, made unique in the directory
+    private File createFile(String pathOrUri, boolean isUri, Bitmap.CompressFormat format) {
+        String name = isUri ? FileUtil.getFileName(mContext, Uri.parse(pathOrUri)) : FileUtil.getName(pathOrUri);
+        if (name == null)
+            name = String.valueOf(System.currentTimeMillis());
+
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex > 0)
+            name = name.substring(0, dotIndex);
+
+        name += format == Bitmap.CompressFormat.PNG ? ".png" : format == Bitmap.CompressFormat.JPEG ? ".jpg" : ".webp";
+        synchronized (this) {
+            if (!mDirectory.exists() && !mDirectory.mkdirs())
+                return null;
+
+            return FileUtil.generateFileName(name, mDirectory);
+        }
+    }
+
+    private static class Options {
+        private final int mMaxSide;
+        private final Bitmap.CompressFormat mFormat;
+        private final int mQuality;
+
+        Options(int maxSide, Bitmap.CompressFormat format, int quality) {
+            mMaxSide = maxSide;
+            mFormat = format;
+            mQuality = quality;
+        }
+    }
+}
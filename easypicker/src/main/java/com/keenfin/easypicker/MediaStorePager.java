@@ -0,0 +1,153 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.v4.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// MediaStore images newest first. Only _ID is queried, the cursor is read a page at a time
+// in background and only a few pages of ids are kept, so huge libraries are not loaded into memory.
+public class MediaStorePager {
+    public static final int PAGE_SIZE = 256;
+    private static final int MAX_PAGES = 8;
+    private static final Uri IMAGES_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+
+    public interface Listener {
+        // count is -1 when MediaStore can not be read
+        void onCountLoaded(int count);
+
+        void onPageLoaded(int firstPosition, int count);
+    }
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+    private final ThreadPoolExecutor mExecutor;
+    private final LruCache<Integer, long[]> mPages = new LruCache<>(MAX_PAGES);
+    private final Set<Integer> mLoading = new HashSet<>();
+    // accessed on the executor thread only
+    private Cursor mCursor;
+    private boolean mClosed;
+
+    public MediaStorePager(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+        // cursor is not thread safe, all reads go through one thread
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                           new DecodeScheduler.DecodeThreadFactory("EasyPicker gallery"));
+    }
+
+    public void open() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int count = -1;
+                try {
+                    mCursor = mResolver.query(IMAGES_URI, new String[]{MediaStore.Images.Media._ID}, null, null,
+                                              MediaStore.Images.Media.DATE_ADDED + " DESC");
+                    if (mCursor != null)
+                        count = mCursor.getCount();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+
+                final int result = count;
+                DecodeScheduler.getInstance().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mClosed)
+                            mListener.onCountLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Main thread only.
+     *
+     * @return Image uri, or null while its page is loading, {@link Listener#onPageLoaded} follows.
+     */
+    public Uri getUri(int position) {
+        long[] ids = getPage(position / PAGE_SIZE);
+        int index = position % PAGE_SIZE;
+        return ids == null || index >= ids.length ? null : ContentUris.withAppendedId(IMAGES_URI, ids[index]);
+    }
+
+    // Start loading page with this position ahead of binding.
+    public void prefetch(int position) {
+        getPage(position / PAGE_SIZE);
+    }
+
+    private long[] getPage(final int page) {
+        long[] ids = mPages.get(page);
+        if (ids != null || mClosed || !mLoading.add(page))
+            return ids;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long[] loaded = readPage(page);
+                DecodeScheduler.getInstance().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoading.remove(page);
+                        if (mClosed || loaded == null)
+                            return;
+
+                        mPages.put(page, loaded);
+                        mListener.onPageLoaded(page * PAGE_SIZE, loaded.length);
+                    }
+                });
+            }
+        });
+
+        return null;
+    }
+
+    private long[] readPage(int page) {
+        if (mCursor == null || mCursor.isClosed())
+            return null;
+
+        try {
+            int first = page * PAGE_SIZE;
+            int count = Math.max(0, Math.min(PAGE_SIZE, mCursor.getCount() - first));
+            long[] ids = new long[count];
+            // cursor window is filled around the position on demand
+            for (int i = 0; i < count && mCursor.moveToPosition(first + i); i++)
+                ids[i] = mCursor.getLong(0);
+
+            return ids;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void close() {
+        mClosed = true;
+        mPages.evictAll();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCursor != null)
+                    mCursor.close();
+            }
+        });
+        mExecutor.shutdown();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.support.media.ExifInterface;
+import android.util.Size;
+
+import java.io.IOException;
+
+// Thumbnails MediaStore already keeps for picked content uris, so grid cells skip full decodes
+public class MediaThumbnails {
+    // MINI_KIND thumbnails are 512x384
+    private static final int MINI_KIND_MIN_SIDE = 384;
+
+    /**
+     * @return Thumbnail covering requested size with orientation applied, or null if there is none
+     * or it is too small for the cell, then full decode is needed.
+     */
+    public static OrientedBitmap load(Context context, Uri uri, int requiredSize, CancelSignal signal) {
+        if (uri == null || !ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) || signal.isCancelled())
+            return null;
+
+        OrientedBitmap thumbnail;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            thumbnail = loadThumbnail(context, uri, requiredSize);
+        else
+            thumbnail = loadLegacyThumbnail(context, uri, requiredSize);
+
+        if (thumbnail == null)
+            return null;
+
+        Bitmap bitmap = thumbnail.getBitmap();
+        if (signal.isCancelled() || !BitmapUtil.isThumbnailLargeEnough(bitmap.getWidth(), bitmap.getHeight(), requiredSize)) {
+            BitmapPool.getInstance().put(bitmap);
+            return null;
+        }
+
+        return thumbnail;
+    }
+
+    private static OrientedBitmap loadThumbnail(Context context, Uri uri, int requiredSize) {
+        try {
+            Bitmap bitmap = context.getContentResolver().loadThumbnail(uri, new Size(requiredSize, requiredSize), null);
+            return bitmap == null ? null : new OrientedBitmap(bitmap);
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // provider has no thumbnail for this document
+            return null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static OrientedBitmap loadLegacyThumbnail(Context context, Uri uri, int requiredSize) {
+        if (requiredSize > MINI_KIND_MIN_SIDE || !MediaStore.AUTHORITY.equals(uri.getAuthority()))
+            return null;
+
+        long id;
+        try {
+            id = ContentUris.parseId(uri);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return null;
+        }
+
+        if (id < 0)
+            return null;
+
+        Bitmap bitmap = MediaStore.Images.Thumbnails.getThumbnail(context.getContentResolver(), id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+        return bitmap == null ? null : new OrientedBitmap(bitmap, getOrientation(context, uri));
+    }
+
+    // legacy thumbnails are stored as taken, MediaStore keeps rotation in degrees
+    private static int getOrientation(Context context, Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri, new String[]{MediaStore.Images.ImageColumns.ORIENTATION}, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                switch (cursor.getInt(0)) {
+                    case 90:
+                        return ExifInterface.ORIENTATION_ROTATE_90;
+                    case 180:
+                        return ExifInterface.ORIENTATION_ROTATE_180;
+                    case 270:
+                        return ExifInterface.ORIENTATION_ROTATE_270;
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
+}
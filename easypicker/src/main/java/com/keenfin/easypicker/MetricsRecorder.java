@@ -0,0 +1,109 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// DecodeMetrics listener keeping latency histograms and totals, attach it with DecodeMetrics.setListener
+public class MetricsRecorder implements DecodeMetrics.Listener {
+    private final LatencyHistogram[] mStages = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mBitmapBytes = new AtomicLong();
+    private final AtomicLong mOutOfMemoryFallbacks = new AtomicLong();
+    private final AtomicLong[] mHits = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong[] mMisses = {new AtomicLong(), new AtomicLong()};
+
+    @Override
+    public void onStage(int stage, long nanos) {
+        mStages[stage].record(nanos);
+    }
+
+    @Override
+    public void onBytesRead(int bytes) {
+        mBytesRead.addAndGet(bytes);
+    }
+
+    @Override
+    public void onBitmapAllocated(int bytes) {
+        mBitmapBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void onOutOfMemoryFallback() {
+        mOutOfMemoryFallbacks.incrementAndGet();
+    }
+
+    @Override
+    public void onCacheLookup(int cache, boolean hit) {
+        (hit ? mHits : mMisses)[cache].incrementAndGet();
+    }
+
+    @Override
+    public void onQueueWait(long nanos) {
+        mQueueWait.record(nanos);
+    }
+
+    // stage is one of DecodeMetrics.STAGE_BOUNDS, STAGE_DECODE and STAGE_ROTATE
+    public LatencyHistogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return mQueueWait;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    public long getBitmapBytes() {
+        return mBitmapBytes.get();
+    }
+
+    public long getOutOfMemoryFallbacks() {
+        return mOutOfMemoryFallbacks.get();
+    }
+
+    // cache is DecodeMetrics.CACHE_MEMORY or CACHE_DISK
+    public long getHits(int cache) {
+        return mHits[cache].get();
+    }
+
+    public long getMisses(int cache) {
+        return mMisses[cache].get();
+    }
+
+    public float getHitRate(int cache) {
+        long hits = mHits[cache].get(), lookups = hits + mMisses[cache].get();
+        return lookups == 0 ? 0 : 1f * hits / lookups;
+    }
+
+    public void reset() {
+        for (LatencyHistogram stage : mStages)
+            stage.reset();
+
+        mQueueWait.reset();
+        mBytesRead.set(0);
+        mBitmapBytes.set(0);
+        mOutOfMemoryFallbacks.set(0);
+        for (int i = 0; i < mHits.length; i++) {
+            mHits[i].set(0);
+            mMisses[i].set(0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "bounds: " + mStages[DecodeMetrics.STAGE_BOUNDS] + "\ndecode: " + mStages[DecodeMetrics.STAGE_DECODE]
+                + "\nrotate: " + mStages[DecodeMetrics.STAGE_ROTATE] + "\nqueue: " + mQueueWait
+                + "\nread=" + getBytesRead() + "B bitmaps=" + getBitmapBytes() + "B oom=" + getOutOfMemoryFallbacks()
+                + " memory hits=" + getHits(DecodeMetrics.CACHE_MEMORY) + "/" + (getHits(DecodeMetrics.CACHE_MEMORY) + getMisses(DecodeMetrics.CACHE_MEMORY))
+                + " disk hits=" + getHits(DecodeMetrics.CACHE_DISK) + "/" + (getHits(DecodeMetrics.CACHE_DISK) + getMisses(DecodeMetrics.CACHE_DISK));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.support.media.ExifInterface;
+
+// Decoded pixels as stored in the source plus EXIF orientation to apply when drawing
+public class OrientedBitmap {
+    private final Bitmap mBitmap;
+    private final int mOrientation;
+
+    public OrientedBitmap(Bitmap bitmap) {
+        this(bitmap, ExifInterface.ORIENTATION_NORMAL);
+    }
+
+    public OrientedBitmap(Bitmap bitmap, int orientation) {
+        mBitmap = bitmap;
+        mOrientation = orientation;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public boolean isRotated() {
+        return BitmapUtil.getOrientationMatrix(mOrientation, mBitmap.getWidth(), mBitmap.getHeight()) != null;
+    }
+
+    public BitmapDrawable toDrawable(Resources resources) {
+        return new OrientedBitmapDrawable(resources, mBitmap, mOrientation);
+    }
+
+    // Pixels copied into physical orientation, source bitmap is released to BitmapPool.
+    public Bitmap toRotatedBitmap() {
+        return BitmapUtil.rotateBitmap(mBitmap, mOrientation);
+    }
+}
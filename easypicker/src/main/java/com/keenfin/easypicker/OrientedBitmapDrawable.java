@@ -0,0 +1,71 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+
+// Applies EXIF orientation as a canvas transform, so rotated photos are shown without copying pixels
+public class OrientedBitmapDrawable extends BitmapDrawable {
+    private final Matrix mOrientationMatrix;
+    private final Matrix mDrawMatrix = new Matrix();
+    private final int mWidth, mHeight;
+    private final boolean mSwapped;
+
+    public OrientedBitmapDrawable(Resources resources, Bitmap bitmap, int orientation) {
+        super(resources, bitmap);
+        mOrientationMatrix = BitmapUtil.getOrientationMatrix(orientation, bitmap.getWidth(), bitmap.getHeight());
+
+        mSwapped = mOrientationMatrix != null && BitmapUtil.isSidesSwapped(orientation);
+        mWidth = mSwapped ? super.getIntrinsicHeight() : super.getIntrinsicWidth();
+        mHeight = mSwapped ? super.getIntrinsicWidth() : super.getIntrinsicHeight();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        if (mOrientationMatrix == null)
+            return;
+
+        Bitmap bitmap = getBitmap();
+        int width = mSwapped ? bitmap.getHeight() : bitmap.getWidth();
+        int height = mSwapped ? bitmap.getWidth() : bitmap.getHeight();
+
+        mDrawMatrix.set(mOrientationMatrix);
+        mDrawMatrix.postScale(1f * bounds.width() / width, 1f * bounds.height() / height);
+        mDrawMatrix.postTranslate(bounds.left, bounds.top);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mOrientationMatrix == null) {
+            super.draw(canvas);
+            return;
+        }
+
+        Bitmap bitmap = getBitmap();
+        if (bitmap == null || bitmap.isRecycled())
+            return;
+
+        canvas.drawBitmap(bitmap, mDrawMatrix, getPaint());
+    }
+}
@@ -9,11 +9,13 @@ package com.keenfin.easypicker;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
@@ -21,11 +23,13 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.FileProvider;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -33,11 +37,15 @@ import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import static android.provider.Settings.ACTION_MANAGE_ALL_FILES_ACCESS_PERMISSION;
@@ -49,14 +57,28 @@ public class PhotoPicker extends RecyclerView {
     private int mColorPrimary, mColorAccent;
     private int mCameraRequest, mPickRequest;
     private final int mPermissionRequest = 936;
-    private boolean mIsOneLine = false, mIsUsePreview = true, mDefaultPreview = false;
+    private boolean mIsOneLine = false, mIsUsePreview = true, mDefaultPreview = false, mUseGallery = false;
     private boolean mPrimaryColorDefined, mAccentColorDefined;
     boolean mIsNougat;
     boolean mIsR;
 
     private Context mContext;
     private PhotoAdapter mPhotoAdapter;
+    private Prefetcher mPrefetcher;
+    private final VisibleRowsListener mVisibleRowsListener = new VisibleRowsListener();
+    private int mFlingVelocity;
     private Drawable mNewPhotoIcon;
+    private OnDuplicateListener mOnDuplicateListener;
+
+    public interface OnDuplicateListener {
+        /**
+         * New attachment shows the same image as an attached one.
+         *
+         * @param exact True for the same content, false for a similar looking picture.
+         * @return False to remove the new attachment, true to keep it.
+         */
+        boolean onDuplicate(String pathOrUri, String duplicateOf, boolean exact);
+    }
 
     public PhotoPicker(Context context) {
         this(context, false);
@@ -91,6 +113,8 @@ public class PhotoPicker extends RecyclerView {
             layoutManager = new GridLayoutManager(context, mImagesPerRow);
 
         setLayoutManager(layoutManager);
+        mPrefetcher = new Prefetcher(context, true);
+        addOnScrollListener(new PrefetchScrollListener());
 
         int[] attrs = new int[]{R.attr.colorPrimary, R.attr.colorAccent};
         TypedArray styleable = context.obtainStyledAttributes(attrs);
@@ -121,6 +145,7 @@ public class PhotoPicker extends RecyclerView {
 
         mIsUsePreview = styleable.getBoolean(R.styleable.PhotoPicker_usePreview, true);
         mDefaultPreview = styleable.getBoolean(R.styleable.PhotoPicker_previewDefault, false);
+        mUseGallery = styleable.getBoolean(R.styleable.PhotoPicker_useGallery, false);
         mMaxPhotos = styleable.getInt(R.styleable.PhotoPicker_maxPhotos, mMaxPhotos);
         mNewPhotosDir = styleable.getString(R.styleable.PhotoPicker_newPhotosDirectory);
         mNewPhotosDir = mNewPhotosDir == null ? Constants.NEW_PHOTOS_SAVE_DIR : mNewPhotosDir;
@@ -136,6 +161,7 @@ public class PhotoPicker extends RecyclerView {
         Bundle bundle = new Bundle();
         bundle.putParcelable("instanceState", super.onSaveInstanceState());
         bundle.putStringArrayList(Constants.BUNDLE_ATTACHED_IMAGES, mPhotoAdapter.getImagesPathOrUri());
+        bundle.putParcelableArrayList(Constants.BUNDLE_PENDING_IMAGES, mPhotoAdapter.getPendingUris());
         bundle.putInt(Constants.BUNDLE_CAMERA_REQUEST, mCameraRequest);
         bundle.putInt(Constants.BUNDLE_PICK_REQUEST, mPickRequest);
 
@@ -157,6 +183,10 @@ public class PhotoPicker extends RecyclerView {
             if (images == null)
                 images = new ArrayList<>();
             mPhotoAdapter.restoreImages(images);
+            // picks still resolving when state was saved start over, old adapter result is lost
+            List<Uri> pending = bundle.getParcelableArrayList(Constants.BUNDLE_PENDING_IMAGES);
+            if (pending != null && !pending.isEmpty())
+                mPhotoAdapter.resolveImages(pending);
             mCameraRequest = bundle.getInt(Constants.BUNDLE_CAMERA_REQUEST);
             mPickRequest = bundle.getInt(Constants.BUNDLE_PICK_REQUEST);
 
@@ -174,6 +204,34 @@ public class PhotoPicker extends RecyclerView {
             mPhotoAdapter.measureParent();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        PhotoViewHolder.attachPhotos(this);
+        getViewTreeObserver().addOnScrollChangedListener(mVisibleRowsListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(mVisibleRowsListener);
+        super.onDetachedFromWindow();
+        mPrefetcher.cancel();
+        PhotoViewHolder.releasePhotos(this);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        mVisibleRowsListener.onScrollChanged();
+    }
+
+    // velocity of the fling about to start sizes the prefetch window of one-line mode
+    @Override
+    public boolean fling(int velocityX, int velocityY) {
+        mFlingVelocity = mIsOneLine ? velocityX : velocityY;
+        return super.fling(velocityX, velocityY);
+    }
+
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         mPhotoAdapter.onActivityResult(requestCode, resultCode, data);
     }
@@ -194,6 +252,10 @@ public class PhotoPicker extends RecyclerView {
         mPhotoAdapter.restoreImages(imagesPathOrUri);
     }
 
+    public void setImages(List<String> imagesPathOrUri) {
+        mPhotoAdapter.setImages(imagesPathOrUri);
+    }
+
     public void setMaxPhotos(int maxPhotos) {
         mMaxPhotos = maxPhotos;
     }
@@ -210,6 +272,15 @@ public class PhotoPicker extends RecyclerView {
         mDefaultPreview = defaultPreview;
     }
 
+    public void setUseGallery(boolean useGallery) {
+        mUseGallery = useGallery;
+    }
+
+    // Attachments are checked in background only while a listener is set.
+    public void setOnDuplicateListener(OnDuplicateListener listener) {
+        mOnDuplicateListener = listener;
+    }
+
     public void setNewPhotosDrawable(int drawableResourceId) {
         mPhotoAdapter.replaceNewPhotoIcon(drawableResourceId);
     }
@@ -220,6 +291,9 @@ public class PhotoPicker extends RecyclerView {
 
     public class PhotoAdapter extends RecyclerView.Adapter<PhotoViewHolder> implements PhotoViewHolder.IViewHolderClick {
         private final List<String> mImagesPathOrUri;
+        // picks whose path is being resolved, shown as empty cells after the attached images
+        private final List<PendingPick> mPending = new ArrayList<>();
+        private final Map<String, DuplicateDetector.Signature> mSignatures = new HashMap<>();
         private Uri mPhotoUri;
 
         private final boolean mNoControls;
@@ -253,7 +327,9 @@ public class PhotoPicker extends RecyclerView {
         public PhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
             View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.photo_item, parent, false);
             view.setBackgroundColor(mColorAccent);
-            return new PhotoViewHolder(view);
+            PhotoViewHolder holder = new PhotoViewHolder(view);
+            holder.setPrefetcher(mPrefetcher);
+            return holder;
         }
 
         @Override
@@ -263,29 +339,106 @@ public class PhotoPicker extends RecyclerView {
             boolean isControl = position == 0 && !mNoControls;
             if (isControl)
                 holder.setIcon(mNewPhotoIcon);
+            else if (position >= mImagesPathOrUri.size())
+                holder.setIcon(null);
             else
                 holder.loadPhoto(mContext, mImagesPathOrUri.get(position), getMeasuredWidth() / mImagesPerRow);
 
             holder.adjustControl(getMeasuredWidth() / mImagesPerRow, mColorPrimary, isControl, mIsOneLine, mNoControls);
         }
 
+        @Override
+        public void onViewAttachedToWindow(@NonNull PhotoViewHolder holder) {
+            holder.onAttached();
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(@NonNull PhotoViewHolder holder) {
+            holder.onDetached();
+        }
+
+        @Override
+        public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+            holder.onRecycled();
+        }
+
         @Override
         public int getItemCount() {
-            return mImagesPathOrUri.size();
+            return mImagesPathOrUri.size() + mPending.size();
         }
 
+        // pending picks are not there until resolved, see getPendingUris
         public ArrayList<String> getImagesPathOrUri() {
-            ArrayList<String> images = new ArrayList<>(mImagesPathOrUri);
+            return new ArrayList<>(mImagesPathOrUri.subList(mNoControls ? 0 : 1, mImagesPathOrUri.size()));
+        }
 
-            if (!mNoControls)
-                images.remove(0);
+        public ArrayList<Uri> getPendingUris() {
+            ArrayList<Uri> uris = new ArrayList<>(mPending.size());
+            for (PendingPick pick : mPending)
+                uris.add(pick.mUri);
 
-            return images;
+            return uris;
+        }
+
+        // position in getImagesPathOrUri
+        private int getImageOffset(int position) {
+            return position - (mNoControls ? 0 : 1);
         }
 
         protected void restoreImages(List<String> imagesPathOrUri) {
+            addImages(imagesPathOrUri);
+            checkDuplicates(imagesPathOrUri, false);
+        }
+
+        // Replace attached images in one update: diffed against current ones, then measured once.
+        // Picks still being resolved are dropped.
+        public void setImages(List<String> imagesPathOrUri) {
+            final List<Object> oldImages = new ArrayList<Object>(mImagesPathOrUri);
+            oldImages.addAll(mPending);
+            final List<String> newImages = new ArrayList<>(imagesPathOrUri.size() + 1);
+            if (!mNoControls)
+                newImages.add(null);
+
             for (String imagePath : imagesPathOrUri)
-                addImage(imagePath);
+                if (imagePath != null)
+                    newImages.add(imagePath);
+
+            DiffUtil.DiffResult diff = null;
+            if (oldImages.size() > (mNoControls ? 0 : 1)) {
+                diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldImages.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return newImages.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        Object oldImage = oldImages.get(oldPosition);
+                        String newImage = newImages.get(newPosition);
+                        return oldImage == null ? newImage == null : oldImage.equals(newImage);
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return true;
+                    }
+                });
+            }
+
+            mImagesPathOrUri.clear();
+            mImagesPathOrUri.addAll(newImages);
+            mPending.clear();
+            if (diff != null)
+                diff.dispatchUpdatesTo(this);
+            else if (newImages.size() > oldImages.size())
+                notifyItemRangeInserted(oldImages.size(), newImages.size() - oldImages.size());
+
+            measureParent();
         }
 
         public Uri getPhotoUri() {
@@ -321,7 +474,7 @@ public class PhotoPicker extends RecyclerView {
         private void onItemClick(int id, int position) {
             if (id == R.id.iv_photo) {
                 if (position == 0 && !mNoControls) {
-                    if (mMaxPhotos > -1 && getItemCount() - 1 >= mMaxPhotos) {
+                    if (getFreeSlots() == 0) {
                         Toast.makeText(mContext, String.format(mContext.getString(R.string.max_photos), mMaxPhotos), Toast.LENGTH_SHORT).show();
                         return;
                     }
@@ -359,9 +512,18 @@ public class PhotoPicker extends RecyclerView {
                                     ((Activity) mContext).startActivityForResult(intent, mCameraRequest);
                                     break;
                                 case 1:
+                                    mPickRequest = randomizeRequest.nextInt(0xffff);
+                                    if (mUseGallery) {
+                                        intent = new Intent(mContext, GalleryActivity.class);
+                                        intent.putExtra(GalleryActivity.EXTRA_MAX_PHOTOS, getFreeSlots());
+                                        ((Activity) mContext).startActivityForResult(intent, mPickRequest);
+                                        break;
+                                    }
+
                                     intent = new Intent(Intent.ACTION_GET_CONTENT);
                                     intent.setType("image/*");
-                                    mPickRequest = randomizeRequest.nextInt(0xffff);
+                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+                                        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, getFreeSlots() != 1);
                                     ((Activity) mContext).startActivityForResult(
                                             Intent.createChooser(intent, mContext.getString(R.string.photo_pick)), mPickRequest);
                                     break;
@@ -370,17 +532,18 @@ public class PhotoPicker extends RecyclerView {
                     });
                     builder.show();
                 } else {
-                    if (!mIsUsePreview)
+                    if (!mIsUsePreview || position >= mImagesPathOrUri.size())
                         return;
 
                     ArrayList<String> imagesPath = getImagesPathOrUri();
-                    int offset = position - (mNoControls ? 0 : 1);
+                    int offset = getImageOffset(position);
                     Intent preview;
 
                     if (!mDefaultPreview) {
                         preview = new Intent(getContext(), PreviewActivity.class);
                         preview.putExtra(Constants.BUNDLE_ATTACHED_IMAGES, imagesPath);
                         preview.putExtra(Constants.BUNDLE_NEW_PHOTO_PATH, offset);
+                        preview.putExtra(Constants.BUNDLE_THUMBNAIL_SIZE, getMeasuredWidth() / mImagesPerRow);
                     } else {
                         preview = new Intent(Intent.ACTION_VIEW);
                         String pathOrUri = imagesPath.get(offset);
@@ -402,7 +565,18 @@ public class PhotoPicker extends RecyclerView {
                 if (position <= 0)
                     return;
 
-                mImagesPathOrUri.remove(position);
+                if (position >= mImagesPathOrUri.size()) {
+                    // result of the pick is dropped when it comes
+                    mPending.remove(position - mImagesPathOrUri.size());
+                    notifyItemRemoved(position);
+                    measureParent();
+                    return;
+                }
+
+                String removed = mImagesPathOrUri.remove(position);
+                if (!mImagesPathOrUri.contains(removed))
+                    mSignatures.remove(removed);
+
                 notifyItemRemoved(position);
                 measureParent();
             }
@@ -419,17 +593,168 @@ public class PhotoPicker extends RecyclerView {
                                                         public void onScanCompleted(String path, Uri uri) {}
                                                     });
                 } else if (requestCode == mPickRequest) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                        selectedImagePath = data.getData().toString();
-                    } else {
-                        selectedImagePath = FileUtil.getRealPath(mContext, data.getData());
-                    }
+                    List<Uri> uris = getPickedUris(data);
+                    if (uris.isEmpty()) {
+                        addImage(null);
+                    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                        List<String> images = new ArrayList<>(uris.size());
+                        for (Uri uri : uris)
+                            images.add(uri.toString());
+
+                        addImages(images);
+                        checkDuplicates(images, true);
+                    } else
+                        resolveImages(uris);
+
+                    return;
                 } else if (requestCode == mPermissionRequest) {
                     onItemClick(R.id.iv_photo, 0);
                     return;
                 } else {return;}
 
-                addImage(selectedImagePath);
+                if (addImage(selectedImagePath))
+                    checkDuplicates(Collections.singletonList(selectedImagePath), true);
+            }
+        }
+
+        // -1 when there is no limit
+        private int getFreeSlots() {
+            if (mMaxPhotos < 0)
+                return -1;
+
+            return Math.max(0, mMaxPhotos - (getItemCount() - (mNoControls ? 0 : 1)));
+        }
+
+        // single pick comes as data, multiple ones as clip, both cut to the limit
+        private List<Uri> getPickedUris(Intent data) {
+            List<Uri> uris = new ArrayList<>();
+            if (data == null)
+                return uris;
+
+            ClipData clip = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? data.getClipData() : null;
+            if (clip != null) {
+                for (int i = 0; i < clip.getItemCount(); i++)
+                    if (clip.getItemAt(i).getUri() != null)
+                        uris.add(clip.getItemAt(i).getUri());
+            } else if (data.getData() != null)
+                uris.add(data.getData());
+
+            int free = getFreeSlots();
+            if (free >= 0 && uris.size() > free) {
+                Toast.makeText(mContext, String.format(mContext.getString(R.string.max_photos), mMaxPhotos), Toast.LENGTH_SHORT).show();
+                uris = uris.subList(0, free);
+            }
+
+            return uris;
+        }
+
+        // Empty cells are added at once, paths are resolved in background and take their place.
+        private void resolveImages(List<Uri> uris) {
+            List<PendingPick> picks = new ArrayList<>(uris.size());
+            for (Uri uri : uris)
+                picks.add(new PendingPick(uri));
+
+            int start = getItemCount();
+            mPending.addAll(picks);
+            notifyItemRangeInserted(start, picks.size());
+            measureParent();
+            for (PendingPick pick : picks)
+                resolveImage(pick);
+        }
+
+        private void resolveImage(final PendingPick pick) {
+            final Context context = mContext.getApplicationContext();
+            DecodeScheduler.getInstance().getIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    String path = null;
+                    try {
+                        path = FileUtil.getRealPath(context, pick.mUri);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+
+                    final String resolved = path;
+                    DecodeScheduler.getInstance().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onResolved(pick, resolved);
+                        }
+                    });
+                }
+            });
+        }
+
+        // resolved image moves from its empty cell to the end of attached ones
+        private void onResolved(PendingPick pick, String path) {
+            int index = mPending.indexOf(pick);
+            if (index < 0)
+                return; // removed or replaced while resolving
+
+            int from = mImagesPathOrUri.size() + index;
+            mPending.remove(index);
+            if (path == null) {
+                notifyItemRemoved(from);
+                measureParent();
+                Toast.makeText(mContext, mContext.getString(R.string.photo_fail_attach), Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            mImagesPathOrUri.add(path);
+            int to = mImagesPathOrUri.size() - 1;
+            if (from != to)
+                notifyItemMoved(from, to);
+            notifyItemChanged(to);
+            checkDuplicates(Collections.singletonList(path), true);
+        }
+
+        private void checkDuplicates(List<String> imagesPathOrUri, final boolean report) {
+            if (mOnDuplicateListener == null)
+                return;
+
+            DuplicateDetector detector = DuplicateDetector.getInstance(mContext);
+            for (final String image : imagesPathOrUri) {
+                if (image == null)
+                    continue;
+
+                detector.getSignature(image, getMeasuredWidth() / mImagesPerRow, new DuplicateDetector.Callback() {
+                    @Override
+                    public void onSignature(DuplicateDetector.Signature signature) {
+                        onSignatureReady(image, signature, report);
+                    }
+                });
+            }
+        }
+
+        // restored attachments only record their signatures, new ones are compared to the rest first
+        private void onSignatureReady(String image, DuplicateDetector.Signature signature, boolean report) {
+            int position = mImagesPathOrUri.lastIndexOf(image);
+            if (signature == null || position < 0)
+                return; // unreadable or removed meanwhile
+
+            mSignatures.put(image, signature);
+            if (!report || mOnDuplicateListener == null)
+                return;
+
+            for (int i = mNoControls ? 0 : 1; i < mImagesPathOrUri.size(); i++) {
+                String other = mImagesPathOrUri.get(i);
+                if (i == position)
+                    continue;
+
+                boolean exact = other.equals(image) || signature.isSameContent(mSignatures.get(other));
+                if (!exact && !signature.isSimilar(mSignatures.get(other)))
+                    continue;
+
+                if (!mOnDuplicateListener.onDuplicate(image, other, exact)) {
+                    mImagesPathOrUri.remove(position);
+                    if (!mImagesPathOrUri.contains(image))
+                        mSignatures.remove(image);
+
+                    notifyItemRemoved(position);
+                    measureParent();
+                }
+
+                return;
             }
         }
 
@@ -446,14 +771,134 @@ public class PhotoPicker extends RecyclerView {
             return result;
         }
 
+        // Whole batch in one insert and one measure, its cells are bound and decoded together.
+        private void addImages(List<String> imagesPath) {
+            int start = mImagesPathOrUri.size();
+            for (String imagePath : imagesPath)
+                if (imagePath != null)
+                    mImagesPathOrUri.add(imagePath);
+
+            int count = mImagesPathOrUri.size() - start;
+            if (count < imagesPath.size())
+                Toast.makeText(mContext, mContext.getString(R.string.photo_fail_attach), Toast.LENGTH_SHORT).show();
+
+            if (count == 0)
+                return;
+
+            notifyItemRangeInserted(start, count);
+            measureParent();
+        }
+
+        // control cell has null path and is skipped by Prefetcher
+        void prefetch(int from, int to, int size) {
+            List<String> window = new ArrayList<>();
+            for (int i = Math.max(from, 0); i < Math.min(to, mImagesPathOrUri.size()); i++)
+                window.add(mImagesPathOrUri.get(i));
+
+            mPrefetcher.prefetch(window, size);
+        }
+
         void measureParent() {
             ViewGroup.LayoutParams params = getLayoutParams();
-            int itemsCount = mIsOneLine ? 1 : mImagesPathOrUri.size();
+            int itemsCount = mIsOneLine ? 1 : getItemCount();
             params.height = (int) Math.ceil(1f * itemsCount / mImagesPerRow) * getMeasuredWidth() / mImagesPerRow;
             setLayoutParams(params);
         }
     }
 
+    // Content uri picked before R, identity tells two picks of the same document apart
+    private static class PendingPick {
+        private final Uri mUri;
+
+        PendingPick(Uri uri) {
+            mUri = uri;
+        }
+    }
+
+    // rows covered within the look-ahead time at the speed, at least one
+    private static int getLookAheadRows(float pixelsPerSecond, int side) {
+        return Math.min(Constants.PREFETCH_MAX_ROWS, 1 + (int) (pixelsPerSecond * Constants.PREFETCH_LOOKAHEAD_MILLIS / 1000 / side));
+    }
+
+    // One-line mode scrolls itself and binds cells as they come. Predicts cells to be bound next from scroll
+    // direction and fling velocity, or drag speed without a fling; reversing drops the old window.
+    private class PrefetchScrollListener extends OnScrollListener {
+        private long mLastTime;
+
+        @Override
+        public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+            if (newState != SCROLL_STATE_SETTLING)
+                mFlingVelocity = 0;
+        }
+
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            long now = SystemClock.uptimeMillis();
+            long elapsed = Math.max(1, now - mLastTime);
+            mLastTime = now;
+
+            int side = getMeasuredWidth() / mImagesPerRow;
+            if (!mIsOneLine || dx == 0 || side <= 0 || !(getLayoutManager() instanceof LinearLayoutManager))
+                return;
+
+            LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+            int first = layoutManager.findFirstVisibleItemPosition();
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (first == NO_POSITION || last == NO_POSITION)
+                return;
+
+            float speed = mFlingVelocity != 0 ? Math.abs(mFlingVelocity) : Math.abs(dx) * 1000f / elapsed;
+            int cells = getLookAheadRows(speed, side);
+            if (dx > 0)
+                mPhotoAdapter.prefetch(last + 1, last + 1 + cells, side);
+            else
+                mPhotoAdapter.prefetch(first - cells, first, side);
+        }
+    }
+
+    // Grid mode is as tall as its content and never scrolls, the enclosing container does, so all cells are
+    // bound at once. Decodes of rows on screen go first, then rows ahead in the scroll direction, sized by
+    // its speed, then the rest.
+    private class VisibleRowsListener implements ViewTreeObserver.OnScrollChangedListener {
+        private final Rect mVisible = new Rect();
+        private boolean mHasLast;
+        private int mLastTop;
+        private long mLastTime;
+
+        @Override
+        public void onScrollChanged() {
+            int side = getMeasuredWidth() / mImagesPerRow;
+            if (mIsOneLine || side <= 0 || !getLocalVisibleRect(mVisible)) {
+                mHasLast = false;
+                return;
+            }
+
+            long now = SystemClock.uptimeMillis();
+            int delta = mHasLast ? mVisible.top - mLastTop : 0;
+            float speed = Math.abs(delta) * 1000f / Math.max(1, now - mLastTime);
+            mHasLast = true;
+            mLastTop = mVisible.top;
+            mLastTime = now;
+
+            int firstRow = mVisible.top / side;
+            int lastRow = (mVisible.bottom - 1) / side;
+            int rows = getLookAheadRows(speed, side);
+            int fromRow = delta < 0 ? firstRow - rows : firstRow;
+            int toRow = delta > 0 ? lastRow + rows : lastRow;
+            for (int i = 0; i < getChildCount(); i++) {
+                ViewHolder holder = getChildViewHolder(getChildAt(i));
+                int position = holder.getAdapterPosition();
+                if (!(holder instanceof PhotoViewHolder) || position == NO_POSITION)
+                    continue;
+
+                int row = position / mImagesPerRow;
+                int priority = row >= firstRow && row <= lastRow ? DecodeScheduler.PRIORITY_VISIBLE
+                        : row >= fromRow && row <= toRow ? DecodeScheduler.PRIORITY_OFFSCREEN : DecodeScheduler.PRIORITY_PREFETCH;
+                ((PhotoViewHolder) holder).setPriority(priority);
+            }
+        }
+    }
+
     public static String getUriProviderAuthority(Context context) {
         return context.getPackageName() + ".easypicker.provider";
     }
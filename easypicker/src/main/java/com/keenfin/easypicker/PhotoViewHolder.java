@@ -9,6 +9,7 @@ package com.keenfin.easypicker;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.widget.ImageButton;
@@ -18,6 +19,10 @@ public class PhotoViewHolder extends RecyclerView.ViewHolder implements View.OnC
     private ImageButton mPhotoRemove;
     private ImageView mPhoto;
     private IViewHolderClick mViewHolderClick;
+    private Prefetcher mPrefetcher;
+    private Context mContext;
+    private String mPath;
+    private int mSize;
 
     public interface IViewHolderClick {
         void onItemClick(View caller, int position);
@@ -55,15 +60,105 @@ public class PhotoViewHolder extends RecyclerView.ViewHolder implements View.OnC
     }
 
     public void setIcon(Drawable photo) {
+        BitmapWorkerTask.cancel(mPhoto);
+        BitmapWorkerTask.releaseImage(mPhoto);
+        mPath = null;
         mPhoto.setImageDrawable(photo);
     }
 
     public void loadPhoto(Context context, String path, int size) {
         size = size > 0 ? size : Constants.REQUIRED_THUMBNAIL_SIZE;
-        BitmapWorkerTask task = new BitmapWorkerTask(mPhoto, size, path, BitmapUtil.getFileDescriptor(context, path));
+        mContext = context;
+        mPath = path;
+        mSize = size;
+
+        BitmapCache.Key key = new BitmapCache.Key(path, size);
+        BitmapWorkerTask current = BitmapWorkerTask.getTask(mPhoto);
+        if (current != null && current.getKey().equals(key) && !current.isCancelled())
+            return;
+
+        BitmapWorkerTask.cancel(mPhoto);
+        OrientedBitmap cached = BitmapCache.getInstance().acquire(key);
+        if (cached != null) {
+            BitmapWorkerTask.setImageBitmap(mPhoto, cached);
+            return;
+        }
+
+        BitmapWorkerTask.releaseImage(mPhoto);
+        int priority = ViewCompat.isAttachedToWindow(itemView) ? DecodeScheduler.PRIORITY_VISIBLE : DecodeScheduler.PRIORITY_OFFSCREEN;
+        BitmapWorkerTask task = mPrefetcher != null ? mPrefetcher.take(key) : null;
+        if (task != null) {
+            task.attach(mPhoto);
+            DecodeScheduler.getInstance().setPriority(task, priority);
+            return;
+        }
+
+        task = new BitmapWorkerTask(mPhoto, size, path);
+        task.setMediaThumbnails(true);
+        task.setExifThumbnails(true);
+        task.setPriority(priority);
         task.execute();
     }
 
+    public void onAttached() {
+        BitmapWorkerTask task = BitmapWorkerTask.getTask(mPhoto);
+        if (task != null)
+            DecodeScheduler.getInstance().setPriority(task, DecodeScheduler.PRIORITY_VISIBLE);
+        else if (mPath != null && mPhoto.getDrawable() == null)
+            loadPhoto(mContext, mPath, mSize); // decode was cancelled on detach, view came back without rebind
+    }
+
+    // Queued decode of this cell moves to the priority, finished or not started ones are left alone.
+    public void setPriority(int priority) {
+        BitmapWorkerTask task = BitmapWorkerTask.getTask(mPhoto);
+        if (task != null)
+            DecodeScheduler.getInstance().setPriority(task, priority);
+    }
+
+    public void onDetached() {
+        BitmapWorkerTask.cancel(mPhoto);
+    }
+
+    public void onRecycled() {
+        BitmapWorkerTask.cancel(mPhoto);
+        BitmapWorkerTask.releaseImage(mPhoto);
+        mPath = null;
+    }
+
+    // Give the photo back when the list goes away without recycling, path is kept so onAttached loads it again.
+    public void releasePhoto() {
+        if (mPath == null)
+            return;
+
+        BitmapWorkerTask.cancel(mPhoto);
+        BitmapWorkerTask.releaseImage(mPhoto);
+    }
+
+    // RecyclerView recycles nothing when it is detached or its activity is destroyed
+    public static void releasePhotos(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            if (holder instanceof PhotoViewHolder)
+                ((PhotoViewHolder) holder).releasePhoto();
+        }
+    }
+
+    public static void attachPhotos(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            if (holder instanceof PhotoViewHolder)
+                ((PhotoViewHolder) holder).onAttached();
+        }
+    }
+
+    public void setChecked(boolean checked) {
+        mPhoto.setAlpha(checked ? Constants.GALLERY_CHECKED_ALPHA : 1f);
+    }
+
+    public void setPrefetcher(Prefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
     public void setOnClickListener(IViewHolderClick listener) {
         mViewHolderClick = listener;
     }
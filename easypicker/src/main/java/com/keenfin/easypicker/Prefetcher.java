@@ -0,0 +1,80 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Warms caches for images expected to be shown next. Each call replaces the predicted window,
+// decodes left out of it are cancelled. Main thread only.
+public class Prefetcher {
+    private final Context mContext;
+    private final boolean mThumbnails;
+    private final Map<BitmapCache.Key, BitmapWorkerTask> mTasks = new HashMap<>();
+
+    /**
+     * @param thumbnails Allow MediaStore and EXIF thumbnails, same as grid cells do.
+     */
+    public Prefetcher(Context context, boolean thumbnails) {
+        mContext = context.getApplicationContext();
+        mThumbnails = thumbnails;
+    }
+
+    public void prefetch(List<String> pathsOrUris, int size) {
+        Set<BitmapCache.Key> window = new HashSet<>();
+        for (String pathOrUri : pathsOrUris)
+            if (pathOrUri != null)
+                window.add(new BitmapCache.Key(pathOrUri, size));
+
+        Iterator<Map.Entry<BitmapCache.Key, BitmapWorkerTask>> iterator = mTasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<BitmapCache.Key, BitmapWorkerTask> entry = iterator.next();
+            BitmapWorkerTask task = entry.getValue();
+            if (task.isFinished() || task.isCancelled()) {
+                iterator.remove();
+            } else if (!window.contains(entry.getKey())) {
+                // prediction was wrong
+                task.cancel();
+                iterator.remove();
+            }
+        }
+
+        for (BitmapCache.Key key : window) {
+            if (mTasks.containsKey(key) || BitmapCache.getInstance().get(key) != null)
+                continue;
+
+            BitmapWorkerTask task = new BitmapWorkerTask(mContext, key.getSize(), key.getPathOrUri());
+            task.setMediaThumbnails(mThumbnails);
+            task.setExifThumbnails(mThumbnails);
+            task.setPriority(DecodeScheduler.PRIORITY_PREFETCH);
+            task.execute();
+            mTasks.put(key, task);
+        }
+    }
+
+    /**
+     * @return Decode still running for this key, caller attaches it to its view instead of starting another one.
+     */
+    public BitmapWorkerTask take(BitmapCache.Key key) {
+        BitmapWorkerTask task = mTasks.remove(key);
+        return task == null || task.isFinished() || task.isCancelled() ? null : task;
+    }
+
+    public void cancel() {
+        for (BitmapWorkerTask task : mTasks.values())
+            task.cancel();
+
+        mTasks.clear();
+    }
+}
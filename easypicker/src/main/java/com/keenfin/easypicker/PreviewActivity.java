@@ -7,8 +7,7 @@
 
 package com.keenfin.easypicker;
 
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
+import android.app.Activity;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
@@ -18,15 +17,16 @@ import android.support.v7.app.AppCompatActivity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import static com.keenfin.easypicker.BitmapUtil.getFileDescriptor;
-
 public class PreviewActivity extends AppCompatActivity {
     private List<String> mImages;
+    private Prefetcher mPrefetcher;
+    private ViewPager mPager;
+    private int mPosition;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,27 +35,63 @@ public class PreviewActivity extends AppCompatActivity {
 
         Bundle bundle = getIntent().getExtras();
 
-        int position = 0;
+        int position = 0, thumbnailSize = 0;
         if (bundle != null && bundle.containsKey(Constants.BUNDLE_ATTACHED_IMAGES)) {
             mImages = bundle.getStringArrayList(Constants.BUNDLE_ATTACHED_IMAGES);
             position = bundle.getInt(Constants.BUNDLE_NEW_PHOTO_PATH, 0);
+            thumbnailSize = bundle.getInt(Constants.BUNDLE_THUMBNAIL_SIZE, 0);
         }
 
         if (mImages == null)
             mImages = new ArrayList<>();
 
-        PreviewAdapter adapter = new PreviewAdapter(getSupportFragmentManager(), mImages);
-        ViewPager pager = findViewById(R.id.vp_photos);
-        pager.setAdapter(adapter);
-        pager.setCurrentItem(position);
+        mPrefetcher = new Prefetcher(this, false);
+        PreviewAdapter adapter = new PreviewAdapter(getSupportFragmentManager(), mImages, thumbnailSize);
+        mPager = findViewById(R.id.vp_photos);
+        mPager.setAdapter(adapter);
+        mPager.setCurrentItem(position);
+        mPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                prefetch(position, position < mPosition ? -1 : 1);
+                mPosition = position;
+            }
+        });
+
+        mPosition = position;
+        prefetch(position, 1);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPrefetcher.cancel();
+    }
+
+    // pager already creates pages next to current one, so warm the page it creates on the next swipe
+    private void prefetch(int position, int direction) {
+        int next = position + direction * (mPager.getOffscreenPageLimit() + 1);
+        List<String> window = next >= 0 && next < mImages.size() ? Collections.singletonList(mImages.get(next)) : Collections.<String>emptyList();
+        mPrefetcher.prefetch(window, getMaxSide(this));
+    }
+
+    BitmapWorkerTask takePrefetched(String imagePath, int maxSide) {
+        return mPrefetcher.take(new BitmapCache.Key(imagePath, maxSide));
+    }
+
+    static int getMaxSide(Activity activity) {
+        return Math.max(activity.getWindowManager().getDefaultDisplay().getWidth(),
+                activity.getWindowManager().getDefaultDisplay().getHeight());
     }
 
     private static class PreviewAdapter extends FragmentStatePagerAdapter {
         private final List<String> mImages;
+        private final int mThumbnailSize;
 
-        public PreviewAdapter(FragmentManager fm, List<String> images) {
+        public PreviewAdapter(FragmentManager fm, List<String> images, int thumbnailSize) {
             super(fm);
             mImages = images;
+            mThumbnailSize = thumbnailSize;
         }
 
         @Override
@@ -68,27 +104,54 @@ public class PreviewActivity extends AppCompatActivity {
             PreviewFragment fragment = new PreviewFragment();
             Bundle bundle = new Bundle();
             bundle.putString(Constants.BUNDLE_ATTACHED_IMAGES, mImages.get(position));
+            bundle.putInt(Constants.BUNDLE_THUMBNAIL_SIZE, mThumbnailSize);
             fragment.setArguments(bundle);
             return fragment;
         }
     }
 
     public static class PreviewFragment extends Fragment {
-        private ImageView mImage;
+        private TileImageView mImage;
         @Override
         public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-            mImage = (ImageView) inflater.inflate(R.layout.preview_item, container, false);
+            mImage = (TileImageView) inflater.inflate(R.layout.preview_item, container, false);
 
             if (getActivity() != null) {
-                int maxSide = Math.max(getActivity().getWindowManager().getDefaultDisplay().getWidth(),
-                        getActivity().getWindowManager().getDefaultDisplay().getHeight());
+                int maxSide = getMaxSide(getActivity());
                 String imagePath = null;
+                int thumbnailSize = 0;
 
-                if (getArguments() != null)
+                if (getArguments() != null) {
                     imagePath = getArguments().getString(Constants.BUNDLE_ATTACHED_IMAGES);
-
-                BitmapWorkerTask task = new BitmapWorkerTask(mImage, maxSide, imagePath, getFileDescriptor(getActivity().getApplicationContext(), imagePath));
-                task.execute();
+                    thumbnailSize = getArguments().getInt(Constants.BUNDLE_THUMBNAIL_SIZE, 0);
+                }
+
+                mImage.setSource(imagePath);
+                OrientedBitmap cached = BitmapCache.getInstance().acquire(new BitmapCache.Key(imagePath, maxSide));
+                if (cached != null) {
+                    BitmapWorkerTask.setImageBitmap(mImage, cached);
+                    return mImage;
+                }
+
+                // grid thumbnail is shown until screen sized decode replaces it
+                OrientedBitmap thumbnail = null;
+                if (thumbnailSize > 0)
+                    thumbnail = BitmapCache.getInstance().acquire(new BitmapCache.Key(imagePath, thumbnailSize));
+                if (thumbnail != null)
+                    BitmapWorkerTask.setImageBitmap(mImage, thumbnail);
+
+                BitmapWorkerTask task = null;
+                if (getActivity() instanceof PreviewActivity)
+                    task = ((PreviewActivity) getActivity()).takePrefetched(imagePath, maxSide);
+
+                if (task != null) {
+                    task.attach(mImage);
+                    DecodeScheduler.getInstance().setPriority(task, DecodeScheduler.PRIORITY_PREVIEW);
+                } else {
+                    task = new BitmapWorkerTask(mImage, maxSide, imagePath);
+                    task.setPriority(DecodeScheduler.PRIORITY_PREVIEW);
+                    task.execute();
+                }
             }
 
             return mImage;
@@ -97,12 +160,10 @@ public class PreviewActivity extends AppCompatActivity {
         @Override
         public void onDestroyView() {
             super.onDestroyView();
-            BitmapDrawable bitmapDrawable = ((BitmapDrawable) mImage.getDrawable());
-            if (bitmapDrawable != null) {
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap != null)
-                    bitmap.recycle();
-            }
+            BitmapWorkerTask.cancel(mImage);
+            // bitmap goes back to BitmapPool once the cache drops it too
+            BitmapWorkerTask.releaseImage(mImage);
+            mImage.recycle();
         }
     }
 }
@@ -0,0 +1,550 @@
+/*
+ *           Copyright © 2021 Stanislav Petriakov
+ *  Distributed under the Boost Software License, Version 1.0.
+ *     (See accompanying file LICENSE_1_0.txt or copy at
+ *           http://www.boost.org/LICENSE_1_0.txt)
+ */
+
+package com.keenfin.easypicker;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.media.ExifInterface;
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.AppCompatImageView;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Preview with pinch zoom. Screen sized decode is the base layer, once zoom goes past its resolution
+// only visible parts of the file are decoded with BitmapRegionDecoder, tile by tile.
+public class TileImageView extends AppCompatImageView {
+    private static final float SQRT_2 = 1.4142f;
+    private static final float EDGE = 0.001f;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static ThreadPoolExecutor sExecutor;
+    private static LruCache<Tile, Bitmap> sTiles;
+    private static int sLastGeneration;
+
+    private final Matrix mBaseMatrix = new Matrix();
+    private final Matrix mTileMatrix = new Matrix();
+    private final Matrix mInverse = new Matrix();
+    private final RectF mVisible = new RectF();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Map<Tile, Future<?>> mPending = new HashMap<>();
+    private final List<Tile> mVisibleTiles = new ArrayList<>();
+    private LruCache<Tile, Bitmap> mTiles;
+    private ScaleGestureDetector mScaleDetector;
+    private GestureDetector mGestureDetector;
+
+    private Source mSource;
+    private int mGeneration;
+    private float mZoom = 1f, mCenterX = 0.5f, mCenterY = 0.5f;
+    // screen pixels per pixel of oriented full size image
+    private float mScale;
+
+    public TileImageView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public TileImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public TileImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context);
+    }
+
+    private void init(Context context) {
+        mTiles = getTiles();
+        mGeneration = ++sLastGeneration;
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        mGestureDetector = new GestureDetector(context, new GestureListener());
+        setScaleType(ScaleType.MATRIX);
+    }
+
+    // Tiles are capped separately from BitmapCache by one budget for all views, visible ones of a view
+    // take at most half of it. Pages kept offscreen by the pager lose their tiles first. Main thread only.
+    private static LruCache<Tile, Bitmap> getTiles() {
+        if (sTiles == null) {
+            int maxSize = (int) (Runtime.getRuntime().maxMemory() / Constants.TILE_CACHE_HEAP_DIVIDER);
+            sTiles = new LruCache<Tile, Bitmap>(maxSize) {
+                @Override
+                protected int sizeOf(Tile key, Bitmap bitmap) {
+                    return BitmapCache.getByteCount(bitmap);
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, Tile key, Bitmap oldValue, Bitmap newValue) {
+                    BitmapPool.getInstance().put(oldValue);
+                }
+            };
+        }
+
+        return sTiles;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            // region decoder is locked while decoding, more threads would only wait
+            sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(), new DecodeScheduler.DecodeThreadFactory("EasyPicker tile"));
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        return sExecutor;
+    }
+
+    /**
+     * Open image for tiled decoding in background. Formats BitmapRegionDecoder does not support
+     * are shown with the base drawable only.
+     */
+    public void setSource(final String pathOrUri) {
+        recycle();
+        if (pathOrUri == null)
+            return;
+
+        final int generation = mGeneration;
+        final Context context = getContext().getApplicationContext();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Source source = Source.open(context, pathOrUri);
+                if (source == null)
+                    return;
+
+                DecodeScheduler.getInstance().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration)
+                            close(source);
+                        else {
+                            mSource = source;
+                            update();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Drop tiles and close the file, base drawable is left to its owner.
+    public void recycle() {
+        for (Future<?> future : mPending.values())
+            future.cancel(false);
+
+        mPending.clear();
+        mVisibleTiles.clear();
+        if (mTiles != null)
+            for (Tile tile : mTiles.snapshot().keySet())
+                if (tile.mGeneration == mGeneration)
+                    mTiles.remove(tile);
+
+        mGeneration = ++sLastGeneration;
+
+        if (mSource != null) {
+            close(mSource);
+            mSource = null;
+        }
+
+        mZoom = 1f;
+        mCenterX = mCenterY = 0.5f;
+    }
+
+    // runs after the tile being decoded now, cancelled ones are skipped
+    private static void close(final Source source) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                source.close();
+            }
+        });
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        update();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        update();
+    }
+
+    // oriented full size when file is opened, base drawable size until then
+    private int getImageWidth() {
+        if (mSource != null)
+            return BitmapUtil.isSidesSwapped(mSource.mOrientation) ? mSource.mHeight : mSource.mWidth;
+
+        Drawable drawable = getDrawable();
+        return drawable == null ? 0 : drawable.getIntrinsicWidth();
+    }
+
+    private int getImageHeight() {
+        if (mSource != null)
+            return BitmapUtil.isSidesSwapped(mSource.mOrientation) ? mSource.mWidth : mSource.mHeight;
+
+        Drawable drawable = getDrawable();
+        return drawable == null ? 0 : drawable.getIntrinsicHeight();
+    }
+
+    private float getFitScale(int width, int height) {
+        return Math.min(1f * getWidth() / width, 1f * getHeight() / height);
+    }
+
+    private float getMaxZoom() {
+        int width = getImageWidth(), height = getImageHeight();
+        if (width <= 0 || height <= 0)
+            return 1f;
+
+        return Math.max(1f, Constants.TILE_MAX_PIXEL_ZOOM / getFitScale(width, height));
+    }
+
+    private void update() {
+        // ImageView sets drawable from its constructor before fields are ready
+        if (mTiles == null)
+            return;
+
+        int width = getImageWidth(), height = getImageHeight();
+        if (getWidth() == 0 || getHeight() == 0 || width <= 0 || height <= 0)
+            return;
+
+        mZoom = Math.min(mZoom, getMaxZoom());
+        mScale = getFitScale(width, height) * mZoom;
+        mCenterX = clampCenter(mCenterX, getWidth(), width);
+        mCenterY = clampCenter(mCenterY, getHeight(), height);
+        float dx = getWidth() / 2f - mCenterX * width * mScale;
+        float dy = getHeight() / 2f - mCenterY * height * mScale;
+
+        Drawable drawable = getDrawable();
+        if (drawable != null && drawable.getIntrinsicWidth() > 0 && drawable.getIntrinsicHeight() > 0) {
+            mBaseMatrix.setScale(mScale * width / drawable.getIntrinsicWidth(), mScale * height / drawable.getIntrinsicHeight());
+            mBaseMatrix.postTranslate(dx, dy);
+            setImageMatrix(mBaseMatrix);
+        }
+
+        updateTiles(drawable, width, dx, dy);
+        invalidate();
+    }
+
+    // centered while image is smaller than the view, otherwise its edges stay at view edges
+    private float clampCenter(float center, int viewSide, int imageSide) {
+        float half = viewSide / (2f * imageSide * mScale);
+        return half >= 0.5f ? 0.5f : Math.max(half, Math.min(1f - half, center));
+    }
+
+    private void updateTiles(Drawable drawable, int width, float dx, float dy) {
+        mVisibleTiles.clear();
+        if (mSource == null) {
+            cancelPending();
+            return;
+        }
+
+        Matrix orientation = BitmapUtil.getOrientationMatrix(mSource.mOrientation, mSource.mWidth, mSource.mHeight);
+        if (orientation != null)
+            mTileMatrix.set(orientation);
+        else
+            mTileMatrix.reset();
+
+        mTileMatrix.postScale(mScale, mScale);
+        mTileMatrix.postTranslate(dx, dy);
+        mTileMatrix.invert(mInverse);
+        mVisible.set(0, 0, getWidth(), getHeight());
+        mInverse.mapRect(mVisible);
+        if (!mVisible.intersect(0, 0, mSource.mWidth, mSource.mHeight)) {
+            cancelPending();
+            return;
+        }
+
+        // nearest power of two, then coarser while visible tiles would not fit into half of the cache
+        int sample = 1;
+        while (sample * 2 * mScale <= SQRT_2)
+            sample *= 2;
+
+        while (getTileCount(sample) * Constants.TILE_SIZE * Constants.TILE_SIZE * 4 > mTiles.maxSize() / 2)
+            sample *= 2;
+
+        float baseSample = drawable == null || drawable.getIntrinsicWidth() <= 0 ? Float.MAX_VALUE : 1f * width / drawable.getIntrinsicWidth();
+        if (mZoom <= 1f || sample >= baseSample) {
+            // base drawable is detailed enough, it may still be a grid thumbnail waiting for its decode
+            cancelPending();
+            return;
+        }
+
+        int side = Constants.TILE_SIZE * sample;
+        for (int row = (int) (mVisible.top / side); row < Math.ceil(mVisible.bottom / side); row++)
+            for (int column = (int) (mVisible.left / side); column < Math.ceil(mVisible.right / side); column++)
+                mVisibleTiles.add(new Tile(mGeneration, sample, column, row, mSource.mWidth, mSource.mHeight));
+
+        // only what is visible now is decoded, stale requests go first
+        Iterator<Map.Entry<Tile, Future<?>>> iterator = mPending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Tile, Future<?>> entry = iterator.next();
+            if (!mVisibleTiles.contains(entry.getKey())) {
+                entry.getValue().cancel(false);
+                iterator.remove();
+            }
+        }
+
+        for (Tile tile : mVisibleTiles)
+            if (mTiles.get(tile) == null && !mPending.containsKey(tile))
+                requestTile(tile);
+    }
+
+    private long getTileCount(int sample) {
+        int side = Constants.TILE_SIZE * sample;
+        long columns = (long) Math.ceil(mVisible.right / side) - (long) (mVisible.left / side);
+        long rows = (long) Math.ceil(mVisible.bottom / side) - (long) (mVisible.top / side);
+        return columns * rows;
+    }
+
+    private void cancelPending() {
+        for (Future<?> future : mPending.values())
+            future.cancel(false);
+
+        mPending.clear();
+    }
+
+    private void requestTile(final Tile tile) {
+        final Source source = mSource;
+        final int generation = mGeneration;
+        Future<?> future = getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = source.decode(tile);
+                DecodeScheduler.getInstance().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            if (bitmap != null)
+                                BitmapPool.getInstance().put(bitmap);
+                            return;
+                        }
+
+                        mPending.remove(tile);
+                        if (bitmap != null) {
+                            mTiles.put(tile, bitmap);
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+
+        mPending.put(tile, future);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mVisibleTiles.isEmpty())
+            return;
+
+        int save = canvas.save();
+        canvas.concat(mTileMatrix);
+        for (Tile tile : mVisibleTiles) {
+            Bitmap bitmap = mTiles.get(tile);
+            if (bitmap != null && !bitmap.isRecycled())
+                canvas.drawBitmap(bitmap, null, tile.mRegion, mPaint);
+            else if (bitmap == null && !mPending.containsKey(tile))
+                requestTile(tile); // evicted for another view while this one was offscreen
+        }
+
+        canvas.restoreToCount(save);
+    }
+
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        int width = getImageWidth();
+        if (width <= 0 || mZoom <= 1f)
+            return false;
+
+        // pager takes the swipe once an edge is reached
+        float half = getWidth() / (2f * width * mScale);
+        if (half >= 0.5f)
+            return false;
+
+        return direction > 0 ? mCenterX < 1f - half - EDGE : mCenterX > half + EDGE;
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (event.getPointerCount() > 1 && getParent() != null)
+            getParent().requestDisallowInterceptTouchEvent(true);
+
+        mScaleDetector.onTouchEvent(event);
+        if (!mScaleDetector.isInProgress())
+            mGestureDetector.onTouchEvent(event);
+
+        return true;
+    }
+
+    // point under focus stays in place
+    private void zoomTo(float zoom, float focusX, float focusY) {
+        int width = getImageWidth(), height = getImageHeight();
+        if (width <= 0 || height <= 0 || mScale <= 0)
+            return;
+
+        zoom = Math.max(1f, Math.min(getMaxZoom(), zoom));
+        float offsetX = focusX - getWidth() / 2f;
+        float offsetY = focusY - getHeight() / 2f;
+        float pointX = mCenterX + offsetX / (width * mScale);
+        float pointY = mCenterY + offsetY / (height * mScale);
+        float scale = mScale / mZoom * zoom;
+
+        mZoom = zoom;
+        mCenterX = pointX - offsetX / (width * scale);
+        mCenterY = pointY - offsetY / (height * scale);
+        update();
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            zoomTo(mZoom * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            return true;
+        }
+    }
+
+    private class GestureListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            int width = getImageWidth(), height = getImageHeight();
+            if (width <= 0 || height <= 0 || mScale <= 0)
+                return false;
+
+            mCenterX += distanceX / (width * mScale);
+            mCenterY += distanceY / (height * mScale);
+            update();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            zoomTo(mZoom > 1f ? 1f : Constants.TILE_DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+            return true;
+        }
+    }
+
+    // Part of the file in stored orientation at given sample size, generation tells views and their sources apart
+    private static class Tile {
+        final int mGeneration, mSample, mColumn, mRow;
+        final Rect mRegion;
+
+        Tile(int generation, int sample, int column, int row, int width, int height) {
+            mGeneration = generation;
+            mSample = sample;
+            mColumn = column;
+            mRow = row;
+
+            int side = Constants.TILE_SIZE * sample;
+            mRegion = new Rect(column * side, row * side, Math.min(width, (column + 1) * side), Math.min(height, (row + 1) * side));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Tile))
+                return false;
+
+            Tile tile = (Tile) o;
+            return mGeneration == tile.mGeneration && mSample == tile.mSample && mColumn == tile.mColumn && mRow == tile.mRow;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mGeneration * 31 + mSample) * 31 + mColumn) * 31 + mRow;
+        }
+    }
+
+    private static class Source {
+        private BitmapRegionDecoder mDecoder;
+        private ParcelFileDescriptor mDescriptor;
+        private int mWidth, mHeight;
+        private int mOrientation = ExifInterface.ORIENTATION_NORMAL;
+
+        static Source open(Context context, String pathOrUri) {
+            Source source = new Source();
+            try {
+                if (BitmapUtil.isUri(pathOrUri)) {
+                    source.mDescriptor = BitmapUtil.openFileDescriptor(context, Uri.parse(pathOrUri));
+                    if (source.mDescriptor == null)
+                        return null;
+
+                    FileInputStream fs = new FileInputStream(source.mDescriptor.getFileDescriptor());
+                    source.mOrientation = new ExifInterface(fs).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                    fs.getChannel().position(0);
+                    source.mDecoder = BitmapRegionDecoder.newInstance(source.mDescriptor.getFileDescriptor(), false);
+                } else {
+                    source.mOrientation = new ExifInterface(pathOrUri).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                    source.mDecoder = BitmapRegionDecoder.newInstance(pathOrUri, false);
+                }
+
+                source.mWidth = source.mDecoder.getWidth();
+                source.mHeight = source.mDecoder.getHeight();
+                DecodeMetrics.onOpen();
+                return source;
+            } catch (IOException e) {
+                e.printStackTrace();
+                source.close();
+                return null;
+            }
+        }
+
+        Bitmap decode(Tile tile) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = tile.mSample;
+            options.inMutable = true;
+            DecodeMetrics.onDecode();
+            try {
+                return mDecoder.decodeRegion(tile.mRegion, options);
+            } catch (OutOfMemoryError | IllegalArgumentException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        void close() {
+            if (mDecoder != null)
+                mDecoder.recycle();
+
+            BitmapUtil.closeFileDescriptor(mDescriptor);
+        }
+    }
+}